@@ -1,15 +1,35 @@
 package info.trizub.clamav.webclient.api;
 
+import info.trizub.clamav.webclient.db.MigrationRunner;
 import info.trizub.clamav.webclient.model.ClamdEndpoint;
+import info.trizub.clamav.webclient.model.JobPriority;
 import info.trizub.clamav.webclient.model.ScanJob;
+import info.trizub.clamav.webclient.model.ScanJobFile;
+import info.trizub.clamav.webclient.model.ScanJobStatus;
+import info.trizub.clamav.webclient.model.ScanVerdict;
+import info.trizub.clamav.webclient.service.ClamavClientProvider;
+import info.trizub.clamav.webclient.service.EndpointRouter;
 import info.trizub.clamav.webclient.service.EndpointService;
+import info.trizub.clamav.webclient.service.QueueFullException;
+import info.trizub.clamav.webclient.service.RetentionService;
 import info.trizub.clamav.webclient.service.ScanJobService;
+import info.trizub.clamav.webclient.service.SettingsService;
+import info.trizub.clamav.webclient.service.SignatureRescanService;
+import info.trizub.clamav.webclient.service.WatcherService;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.constraints.NotBlank;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
 
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.List;
 import java.util.Map;
 
@@ -19,10 +39,39 @@ public class ApiController {
 
     private final EndpointService endpoints;
     private final ScanJobService jobs;
+    private final ClamavClientProvider clientProvider;
+    private final EndpointRouter router;
+    private final SettingsService settings;
+    private final WatcherService watcher;
+    private final SignatureRescanService rescans;
+    private final RetentionService retention;
+    private final MigrationRunner migrations;
 
-    public ApiController(EndpointService endpoints, ScanJobService jobs) {
+    public ApiController(EndpointService endpoints,
+                         ScanJobService jobs,
+                         ClamavClientProvider clientProvider,
+                         EndpointRouter router,
+                         SettingsService settings,
+                         WatcherService watcher,
+                         SignatureRescanService rescans,
+                         RetentionService retention,
+                         MigrationRunner migrations) {
         this.endpoints = endpoints;
         this.jobs = jobs;
+        this.clientProvider = clientProvider;
+        this.router = router;
+        this.settings = settings;
+        this.watcher = watcher;
+        this.rescans = rescans;
+        this.retention = retention;
+        this.migrations = migrations;
+    }
+
+    @ExceptionHandler(QueueFullException.class)
+    public ResponseEntity<Map<String, Object>> queueFull(QueueFullException e) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body(Map.of("error", e.getMessage()));
     }
 
     @GetMapping("/health")
@@ -33,45 +82,149 @@ public class ApiController {
         );
     }
 
+    @GetMapping("/clamd/pools")
+    public Map<String, Object> clamdPools() {
+        return clientProvider.poolStats();
+    }
+
+    @GetMapping("/clamd/routing")
+    public Map<String,Object> routing() {
+        return Map.of("strategy", settings.routingStrategy(), "endpoints", router.snapshot());
+    }
+
+    @GetMapping("/watch")
+    public List<Map<String, Object>> watchStatus() {
+        return watcher.status();
+    }
+
+    @GetMapping("/rescan")
+    public Map<String, Object> rescanStatus() {
+        return rescans.status();
+    }
+
+    @GetMapping("/migrations")
+    public List<Map<String, Object>> migrationStatus() {
+        return migrations.status();
+    }
+
+    @GetMapping("/retention")
+    public Map<String, Object> retentionStatus() {
+        return retention.status();
+    }
+
+    @GetMapping("/archive/jobs/{id}")
+    public Map<String, Object> archivedJob(@PathVariable String id) throws IOException {
+        Map<String, Object> archived = retention.findArchivedJob(id);
+        if (archived == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "job not archived");
+        }
+        return archived;
+    }
+
+    @GetMapping("/archive/rollups")
+    public List<Map<String, Object>> rollups(@RequestParam(name = "source", defaultValue = "scan_jobs") String source,
+                                             @RequestParam(name = "from", required = false) Instant from,
+                                             @RequestParam(name = "to", required = false) Instant to) {
+        Instant end = to != null ? to : Instant.now();
+        return retention.rollups(source, from != null ? from : end.minus(Duration.ofDays(7)), end);
+    }
+
+    /**
+     * Jobs newest first, optionally filtered. When more jobs match, the X-Next-Cursor header holds
+     * the cursor for the next page.
+     */
     @GetMapping("/jobs")
-    public List<ScanJob> listJobs() {
-        return jobs.latest();
+    public ResponseEntity<List<ScanJob>> listJobs(@RequestParam(name = "status", required = false) ScanJobStatus status,
+                                                  @RequestParam(name = "verdict", required = false) ScanVerdict verdict,
+                                                  @RequestParam(name = "endpointId", required = false) Long endpointId,
+                                                  @RequestParam(name = "user", required = false) String user,
+                                                  @RequestParam(name = "from", required = false) Instant from,
+                                                  @RequestParam(name = "to", required = false) Instant to,
+                                                  @RequestParam(name = "cursor", required = false) String cursor,
+                                                  @RequestParam(name = "limit", defaultValue = "200") int limit) {
+        ScanJobService.JobPage page;
+        try {
+            page = jobs.page(new ScanJobService.JobFilter(status, verdict, endpointId, user, from, to), cursor, limit);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        var response = ResponseEntity.ok();
+        if (page.nextCursor() != null) response.header("X-Next-Cursor", page.nextCursor());
+        return response.body(page.jobs());
     }
 
     @GetMapping("/jobs/{id}")
     public ScanJob getJob(@PathVariable String id) {
         ScanJob job = jobs.getOrNull(id);
         if (job == null) {
-            throw new org.springframework.web.server.ResponseStatusException(
-                    org.springframework.http.HttpStatus.NOT_FOUND,
-                    "job not found"
-            );
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "job not found");
         }
         return job;
     }
 
+    @GetMapping("/jobs/{id}/progress")
+    public Map<String,Object> jobProgress(@PathVariable String id) {
+        Map<String,Object> progress = jobs.progress(id);
+        if (progress == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "job not found");
+        }
+        return progress;
+    }
+
+    @GetMapping("/jobs/{id}/files")
+    public List<ScanJobFile> jobFiles(@PathVariable String id,
+                                      @RequestParam(name = "after", defaultValue = "0") long after,
+                                      @RequestParam(name = "problemsOnly", defaultValue = "false") boolean problemsOnly) {
+        return jobs.files(id, after, problemsOnly);
+    }
+
     @PostMapping(value = "/scan/upload", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     public Map<String,Object> scanUpload(@RequestParam("files") List<MultipartFile> files,
-                                         @RequestParam("endpointId") Long endpointId,
+                                         @RequestParam(name = "endpointId", required = false) Long endpointId,
+                                         @RequestParam(name = "pool", defaultValue = "false") boolean pool,
                                          Authentication auth) {
-        var ep = endpoints.get(endpointId);
-        var created = jobs.createUploadJobs(files, ep, auth.getName());
+        var ep = target(endpointId, pool);
+        var created = jobs.createUploadJobs(files, ep, auth.getName(), JobPriority.API);
         return Map.of(
                 "created", created.size(),
                 "jobIds", created.stream().map(ScanJob::getId).toList()
         );
     }
 
+    /**
+     * Raw-body upload: the request body is the file content. Unlike /scan/upload it is not spooled
+     * by the multipart resolver, so the body is read once while it is hashed, stored and scanned.
+     */
+    @PostMapping(value = "/scan/stream", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public Map<String,Object> scanStream(@RequestParam("filename") String filename,
+                                         @RequestParam(name = "endpointId", required = false) Long endpointId,
+                                         @RequestParam(name = "pool", defaultValue = "false") boolean pool,
+                                         HttpServletRequest request,
+                                         Authentication auth) throws IOException {
+        var ep = target(endpointId, pool);
+        var job = jobs.createStreamJob(request.getInputStream(), filename, ep, auth.getName(), JobPriority.API);
+        return Map.of("jobId", job.getId());
+    }
+
     public static class PathScanRequest {
         @NotBlank public String path;
         public Long endpointId;
+        public boolean pool;
     }
 
     @PostMapping(value = "/scan/path", consumes = MediaType.APPLICATION_JSON_VALUE)
     public Map<String,Object> scanPath(@RequestBody PathScanRequest req,
                                        Authentication auth) {
-        var ep = req.endpointId != null ? endpoints.get(req.endpointId) : endpoints.defaultEndpoint();
-        var job = jobs.createPathJob(req.path, ep, auth.getName());
+        var ep = target(req.endpointId, req.pool);
+        var job = jobs.createPathJob(req.path, ep, auth.getName(), JobPriority.API);
         return Map.of("jobId", job.getId());
     }
+
+    /**
+     * Endpoint a scan request targets; null means the pool (the router picks per job).
+     */
+    private ClamdEndpoint target(Long endpointId, boolean pool) {
+        if (pool) return null;
+        return endpointId != null ? endpoints.get(endpointId) : endpoints.defaultEndpoint();
+    }
 }
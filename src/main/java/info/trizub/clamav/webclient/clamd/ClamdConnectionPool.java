@@ -0,0 +1,240 @@
+package info.trizub.clamav.webclient.clamd;
+
+import info.trizub.clamav.webclient.model.ClamdEndpoint;
+import info.trizub.clamav.webclient.service.SettingsService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps warm IDSESSION connections per ClamdEndpoint (keyed by endpoint id).
+ *
+ * - at most app.clamd.pool.maxPerEndpoint sockets are open to one endpoint at a time
+ * - idle sessions are closed before clamd's own IdleTimeout (default 30s) would drop them
+ * - a session that fails in any way is closed instead of being returned to the pool; a reply
+ *   that takes longer than app.clamd.pool.readTimeoutMs fails the call and closes the session
+ * - sessions still in use when their endpoint is invalidated are closed once the call completes
+ */
+@Component
+public class ClamdConnectionPool {
+
+    private static final Logger log = LoggerFactory.getLogger(ClamdConnectionPool.class);
+
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+
+    @FunctionalInterface
+    public interface SessionCall<T> {
+        T apply(ClamdSession session) throws IOException;
+    }
+
+    private final SettingsService settings;
+    private final MeterRegistry meterRegistry;
+    private final Map<Long, EndpointPool> pools = new ConcurrentHashMap<>();
+
+    public ClamdConnectionPool(SettingsService settings, MeterRegistry meterRegistry) {
+        this.settings = settings;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Run a call on a pooled session. When retryable is true (the call does not consume a stream)
+     * and a reused session turns out to be stale, the call is retried once on a fresh connection.
+     */
+    public <T> T execute(ClamdEndpoint ep, boolean retryable, SessionCall<T> call) throws IOException {
+        EndpointPool pool = poolFor(ep);
+        try {
+            if (!pool.permits.tryAcquire(settings.clamdPoolAcquireTimeoutMs(), TimeUnit.MILLISECONDS)) {
+                throw new IOException("No free clamd connection for endpoint " + ep.getName());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for clamd connection", e);
+        }
+        try {
+            ClamdSession session = pool.borrowIdle();
+            boolean reused = session != null;
+            if (session == null) session = pool.open(readTimeoutMs());
+            try {
+                return pool.complete(session, call.apply(session));
+            } catch (IOException | RuntimeException e) {
+                pool.discard(session);
+                // A read timeout means clamd is stalled, not that the session went stale.
+                if (!retryable || !reused || e instanceof SocketTimeoutException) throw e;
+                log.debug("Stale clamd session for {}, retrying on a new connection: {}", ep.getName(), e.getMessage());
+                ClamdSession fresh = pool.open(readTimeoutMs());
+                try {
+                    return pool.complete(fresh, call.apply(fresh));
+                } catch (IOException | RuntimeException e2) {
+                    pool.discard(fresh);
+                    throw e2;
+                }
+            }
+        } finally {
+            pool.permits.release();
+        }
+    }
+
+    @Scheduled(fixedDelay = 5000)
+    public void evictIdle() {
+        long cutoff = System.currentTimeMillis() - settings.clamdPoolIdleSeconds() * 1000L;
+        for (EndpointPool pool : pools.values()) {
+            pool.evictOlderThan(cutoff);
+        }
+    }
+
+    /**
+     * Drop all sessions for an endpoint, e.g. after it was edited or deleted.
+     */
+    public void invalidate(Long endpointId) {
+        EndpointPool pool = pools.remove(endpointId);
+        if (pool != null) pool.closeAll();
+    }
+
+    public List<Map<String, Object>> stats() {
+        List<Map<String, Object>> out = new ArrayList<>();
+        for (EndpointPool pool : pools.values()) {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("endpointId", pool.endpointId);
+            m.put("address", pool.address);
+            m.put("maxSockets", pool.maxSockets);
+            m.put("inUse", pool.maxSockets - pool.permits.availablePermits());
+            m.put("idle", pool.idle.size());
+            m.put("created", pool.created.get());
+            m.put("reused", pool.reused.get());
+            m.put("evicted", pool.evicted.get());
+            m.put("broken", pool.broken.get());
+            out.add(m);
+        }
+        return out;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pools.values().forEach(EndpointPool::closeAll);
+        pools.clear();
+    }
+
+    private EndpointPool poolFor(ClamdEndpoint ep) {
+        String address = ep.getHost() + ":" + ep.getPort();
+        EndpointPool pool = pools.computeIfAbsent(ep.getId(), id -> register(new EndpointPool(ep, maxSockets(ep))));
+        if (!pool.address.equals(address)) {
+            // Endpoint was re-pointed: sessions to the old address must not be reused.
+            synchronized (pools) {
+                pool = pools.get(ep.getId());
+                if (pool == null || !pool.address.equals(address)) {
+                    if (pool != null) pool.closeAll();
+                    pool = new EndpointPool(ep, maxSockets(ep));
+                    pools.put(ep.getId(), pool);
+                }
+            }
+        }
+        return pool;
+    }
+
+    private int readTimeoutMs() {
+        return (int) Math.max(0, Math.min(Integer.MAX_VALUE, settings.clamdPoolReadTimeoutMs()));
+    }
+
+    private int maxSockets(ClamdEndpoint ep) {
+        // Never fewer sockets than the scans the executor may run against this endpoint.
+        int limit = settings.clamdPoolMaxPerEndpoint();
+        return ep.getMaxConcurrency() != null ? Math.max(limit, ep.getMaxConcurrency()) : limit;
+    }
+
+    private EndpointPool register(EndpointPool pool) {
+        String id = String.valueOf(pool.endpointId);
+        Gauge.builder("clamav.clamd.pool.idle", pools, m -> Optional.ofNullable(m.get(pool.endpointId)).map(p -> p.idle.size()).orElse(0))
+                .tag("endpoint", id).register(meterRegistry);
+        Gauge.builder("clamav.clamd.pool.in_use", pools, m -> Optional.ofNullable(m.get(pool.endpointId))
+                        .map(p -> p.maxSockets - p.permits.availablePermits()).orElse(0))
+                .tag("endpoint", id).register(meterRegistry);
+        return pool;
+    }
+
+    private static final class EndpointPool {
+        final Long endpointId;
+        final String host;
+        final int port;
+        final String address;
+        final int maxSockets;
+        final Semaphore permits;
+        final Deque<ClamdSession> idle = new ConcurrentLinkedDeque<>();
+        final AtomicLong created = new AtomicLong();
+        final AtomicLong reused = new AtomicLong();
+        final AtomicLong evicted = new AtomicLong();
+        final AtomicLong broken = new AtomicLong();
+        volatile boolean closed;
+
+        EndpointPool(ClamdEndpoint ep, int maxSockets) {
+            this.endpointId = ep.getId();
+            this.host = ep.getHost();
+            this.port = ep.getPort();
+            this.address = host + ":" + port;
+            this.maxSockets = Math.max(1, maxSockets);
+            this.permits = new Semaphore(this.maxSockets, true);
+        }
+
+        ClamdSession borrowIdle() {
+            // Most recently used first: it is the least likely to have been dropped by clamd.
+            ClamdSession s;
+            while ((s = idle.pollFirst()) != null) {
+                if (s.isOpen()) {
+                    reused.incrementAndGet();
+                    return s;
+                }
+                evicted.incrementAndGet();
+                s.close();
+            }
+            return null;
+        }
+
+        ClamdSession open(int readTimeoutMs) throws IOException {
+            ClamdSession s = ClamdSession.open(host, port, CONNECT_TIMEOUT_MS, readTimeoutMs);
+            created.incrementAndGet();
+            return s;
+        }
+
+        <T> T complete(ClamdSession session, T result) {
+            idle.offerFirst(session);
+            // Returned after closeAll(): nobody will borrow or evict it any more. Either this
+            // remove or closeAll()'s poll gets the session, so it is closed exactly once.
+            if (closed && idle.remove(session)) session.close();
+            return result;
+        }
+
+        void discard(ClamdSession session) {
+            broken.incrementAndGet();
+            session.close();
+        }
+
+        void evictOlderThan(long cutoffMs) {
+            // Oldest sessions sit at the tail.
+            ClamdSession s;
+            while ((s = idle.peekLast()) != null && s.getLastUsedMs() < cutoffMs) {
+                if (idle.removeLastOccurrence(s)) {
+                    evicted.incrementAndGet();
+                    s.close();
+                }
+            }
+        }
+
+        void closeAll() {
+            closed = true;
+            ClamdSession s;
+            while ((s = idle.pollFirst()) != null) s.close();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package info.trizub.clamav.webclient.clamd;
+
+import xyz.capybara.clamav.InvalidResponseException;
+import xyz.capybara.clamav.ScanFailureException;
+import xyz.capybara.clamav.commands.scan.result.ScanResult;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * One TCP connection to clamd kept open in IDSESSION mode, so several commands can be sent
+ * without reconnecting. Commands use the null-terminated ("z") format and every reply is
+ * prefixed with the request id ("3: stream: OK"), which is checked to detect a desynced socket.
+ *
+ * Not thread-safe: a session is used by one caller at a time (see ClamdConnectionPool).
+ */
+public class ClamdSession implements Closeable {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final Socket socket;
+    private final OutputStream out;
+    private final InputStream in;
+    private int nextRequestId = 1;
+    private long lastUsedMs = System.currentTimeMillis();
+
+    private ClamdSession(Socket socket) throws IOException {
+        this.socket = socket;
+        this.out = new BufferedOutputStream(socket.getOutputStream(), CHUNK_SIZE + 4);
+        this.in = new BufferedInputStream(socket.getInputStream());
+    }
+
+    /**
+     * readTimeoutMs bounds every blocking read, so a clamd that stalls mid-session fails the call
+     * with a SocketTimeoutException instead of blocking it forever (0 = no limit).
+     */
+    public static ClamdSession open(String host, int port, int connectTimeoutMs, int readTimeoutMs) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            socket.setSoTimeout(readTimeoutMs);
+            socket.connect(new InetSocketAddress(host, port), connectTimeoutMs);
+            ClamdSession session = new ClamdSession(socket);
+            session.writeCommand("IDSESSION");
+            session.out.flush();
+            return session;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    public String ping() throws IOException {
+        return command("PING");
+    }
+
+    public String version() throws IOException {
+        return command("VERSION");
+    }
+
+    public String stats() throws IOException {
+        return command("STATS");
+    }
+
+    /**
+     * INSTREAM: send content in length-prefixed chunks, terminated by a zero-length chunk.
+     */
+    public ScanResult instream(InputStream content) throws IOException {
+        int id = nextRequestId++;
+        writeCommand("INSTREAM");
+        byte[] buf = new byte[CHUNK_SIZE];
+        int r;
+        while ((r = content.read(buf)) >= 0) {
+            if (r == 0) continue;
+            writeInt(r);
+            out.write(buf, 0, r);
+        }
+        writeInt(0);
+        out.flush();
+        return parseScan(readReply(id));
+    }
+
+    /**
+     * SCAN of a single file by path; clamd must see the same filesystem.
+     */
+    public ScanResult scanFile(Path file) throws IOException {
+        int id = nextRequestId++;
+        writeCommand("SCAN " + file.toString());
+        out.flush();
+        return parseScan(readReply(id));
+    }
+
+    public long getLastUsedMs() {
+        return lastUsedMs;
+    }
+
+    public boolean isOpen() {
+        return !socket.isClosed() && socket.isConnected();
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (!socket.isClosed()) {
+                writeCommand("END");
+                out.flush();
+            }
+        } catch (IOException ignored) {
+        }
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private String command(String cmd) throws IOException {
+        int id = nextRequestId++;
+        writeCommand(cmd);
+        out.flush();
+        return readReply(id);
+    }
+
+    private void writeCommand(String cmd) throws IOException {
+        out.write(("z" + cmd + "\0").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private void writeInt(int v) throws IOException {
+        out.write((v >>> 24) & 0xFF);
+        out.write((v >>> 16) & 0xFF);
+        out.write((v >>> 8) & 0xFF);
+        out.write(v & 0xFF);
+    }
+
+    private String readReply(int expectedId) throws IOException {
+        ByteArrayOutputStream reply = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = in.read()) != 0) {
+            if (b < 0) throw new EOFException("clamd closed the session");
+            reply.write(b);
+        }
+        lastUsedMs = System.currentTimeMillis();
+        String s = reply.toString(StandardCharsets.UTF_8);
+        String prefix = expectedId + ": ";
+        if (!s.startsWith(prefix)) {
+            throw new InvalidResponseException("Unexpected clamd session reply: " + s);
+        }
+        return s.substring(prefix.length()).trim();
+    }
+
+    /**
+     * Same reply handling as the clamav-client library: "... OK", "name: sig FOUND", "... ERROR".
+     */
+    static ScanResult parseScan(String reply) {
+        if (reply.endsWith(" OK")) {
+            return ScanResult.OK.INSTANCE;
+        }
+        if (reply.endsWith(" FOUND")) {
+            String body = reply.substring(0, reply.length() - " FOUND".length());
+            int sep = body.lastIndexOf(": ");
+            String name = sep >= 0 ? body.substring(0, sep) : "stream";
+            String sig = sep >= 0 ? body.substring(sep + 2) : body;
+            Map<String, Collection<String>> found = new LinkedHashMap<>();
+            found.put(name, new ArrayList<>(List.of(sig)));
+            return new ScanResult.VirusFound(found);
+        }
+        if (reply.endsWith(" ERROR")) {
+            throw new ScanFailureException(reply);
+        }
+        throw new InvalidResponseException(reply);
+    }
+}
@@ -0,0 +1,51 @@
+package info.trizub.clamav.webclient.db;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.util.Locale;
+
+/**
+ * Which database the app runs on, for the few places that need vendor-specific SQL.
+ *
+ * The product name is read from the connection metadata on first use and cached; if no
+ * connection can be obtained it is retried on the next call.
+ */
+@Component
+public class DatabaseType {
+
+    private static final Logger log = LoggerFactory.getLogger(DatabaseType.class);
+
+    private final DataSource dataSource;
+    private volatile String name;
+
+    public DatabaseType(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public boolean isPostgres() {
+        return name().contains("postgres");
+    }
+
+    public boolean isH2() {
+        return name().contains("h2");
+    }
+
+    private String name() {
+        String n = name;
+        if (n == null) {
+            try (Connection c = dataSource.getConnection()) {
+                String product = c.getMetaData().getDatabaseProductName();
+                n = product == null ? "" : product.toLowerCase(Locale.ROOT);
+            } catch (Exception e) {
+                log.warn("Unable to determine database type: {}", e.getMessage());
+                return "";
+            }
+            name = n;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,75 @@
+package info.trizub.clamav.webclient.db;
+
+import info.trizub.clamav.webclient.model.ScanJobType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+/**
+ * Lets existing databases store enum values added after their tables were created.
+ *
+ * Hibernate maps @Enumerated(STRING) to a native ENUM column on H2 and to VARCHAR with a CHECK
+ * constraint on Postgres, both listing the values known at creation time. ddl-auto=update never
+ * widens them, so e.g. a new ScanJobType would be rejected on insert. This widens them to the
+ * values of the running version.
+ *
+ * If the column already accepts every value (fresh databases), it does nothing. Once recorded as
+ * DONE it does not run again, so a release that adds more values needs a new migration version.
+ *
+ * Version 1 because it is cheap and BATCH job inserts fail until it has run: it must not wait
+ * behind the long-running data rewrites that follow it.
+ */
+@Component
+public class EnumColumnMigration implements Migration {
+
+    private static final Logger log = LoggerFactory.getLogger(EnumColumnMigration.class);
+
+    @Override
+    public int version() {
+        return 1;
+    }
+
+    @Override
+    public String description() {
+        return "widen scan_jobs.type to all ScanJobType values";
+    }
+
+    @Override
+    public void run(MigrationRunner.Context ctx) {
+        ensureValues(ctx, "scan_jobs", "type", ScanJobType.class);
+    }
+
+    private static void ensureValues(MigrationRunner.Context ctx, String table, String column, Class<? extends Enum<?>> type) {
+        JdbcTemplate jdbc = ctx.jdbc();
+        List<String> values = Arrays.stream(type.getEnumConstants()).map(Enum::name).toList();
+        String quoted = values.stream().map(v -> "'" + v + "'").collect(Collectors.joining(","));
+        if (ctx.isH2()) {
+            List<String> current = jdbc.queryForList(
+                    "SELECT e.VALUE_NAME FROM INFORMATION_SCHEMA.COLUMNS c JOIN INFORMATION_SCHEMA.ENUM_VALUES e "
+                            + "ON e.OBJECT_SCHEMA = c.TABLE_SCHEMA AND e.OBJECT_NAME = c.TABLE_NAME AND e.ENUM_IDENTIFIER = c.DTD_IDENTIFIER "
+                            + "WHERE c.TABLE_SCHEMA = SCHEMA() AND c.TABLE_NAME = ? AND c.COLUMN_NAME = ?",
+                    String.class, table.toUpperCase(Locale.ROOT), column.toUpperCase(Locale.ROOT));
+            if (current.isEmpty() || current.containsAll(values)) return; // not an ENUM column, or up to date
+            jdbc.execute("ALTER TABLE " + table + " ALTER COLUMN " + column + " SET DATA TYPE ENUM(" + quoted + ")");
+        } else if (ctx.isPostgres()) {
+            String constraint = table + "_" + column + "_check";
+            String def = jdbc.query(
+                    "SELECT pg_get_constraintdef(oid) FROM pg_constraint WHERE conrelid = ?::regclass AND conname = ?",
+                    rs -> rs.next() ? rs.getString(1) : null, table, constraint);
+            if (def == null || values.stream().allMatch(v -> def.contains("'" + v + "'"))) return;
+            ctx.tx().executeWithoutResult(s -> {
+                jdbc.execute("ALTER TABLE " + table + " DROP CONSTRAINT " + constraint);
+                jdbc.execute("ALTER TABLE " + table + " ADD CONSTRAINT " + constraint + " CHECK (" + column + " IN (" + quoted + "))");
+            });
+        } else {
+            return;
+        }
+        log.warn("Widened {}.{} to accept {}", table, column, values);
+    }
+}
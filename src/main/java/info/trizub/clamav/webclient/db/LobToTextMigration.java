@@ -0,0 +1,108 @@
+package info.trizub.clamav.webclient.db;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Converts scan_jobs.found_viruses_json and scan_jobs.error_message from OID Large Objects to TEXT
+ * on Postgres schemas created by older versions, where String @Lob columns became OIDs and fail
+ * with "Large Objects may not be used in auto-commit mode".
+ *
+ * Instead of one whole-table UPDATE, the text is copied into a new "_text" column in chunks of
+ * CHUNK rows in primary key order, each chunk in its own short transaction that also saves the
+ * last id as the resume cursor. The swap (copy rows written meanwhile, drop the OID column,
+ * rename) is one short transaction under a lock_timeout; if the lock is not granted it is retried.
+ *
+ * Replaces the former one-shot startup migration. Does nothing on other databases or when the
+ * columns are already TEXT.
+ */
+@Component
+public class LobToTextMigration implements Migration {
+
+    private static final Logger log = LoggerFactory.getLogger(LobToTextMigration.class);
+
+    private static final int CHUNK = 1000;
+    private static final long PAUSE_MS = 50;
+    private static final int SWAP_ATTEMPTS = 20;
+    private static final List<String> COLUMNS = List.of("found_viruses_json", "error_message");
+
+    @Override
+    public int version() {
+        return 2;
+    }
+
+    @Override
+    public String description() {
+        return "scan_jobs OID columns to TEXT";
+    }
+
+    @Override
+    public void run(MigrationRunner.Context ctx) throws Exception {
+        if (!ctx.isPostgres()) return;
+        List<String> columns = new ArrayList<>();
+        for (String c : COLUMNS) {
+            if (isOid(ctx, c)) columns.add(c);
+        }
+        if (columns.isEmpty()) return;
+
+        log.warn("scan_jobs has OID columns {}; converting them to TEXT in the background", columns);
+        for (String c : columns) ctx.jdbc().execute("ALTER TABLE scan_jobs ADD COLUMN IF NOT EXISTS " + c + "_text TEXT");
+        Long estimate = ctx.jdbc().queryForObject(
+                "SELECT GREATEST(reltuples, 0)::bigint FROM pg_class WHERE oid = 'scan_jobs'::regclass", Long.class);
+        if (estimate != null) ctx.total(estimate);
+
+        String copy = "UPDATE scan_jobs SET " + String.join(", ", columns.stream().map(LobToTextMigration::copyExpr).toList());
+        while (true) {
+            String after = ctx.cursor() == null ? "" : ctx.cursor();
+            List<String> ids = ctx.jdbc().queryForList(
+                    "SELECT id FROM scan_jobs WHERE id > ? ORDER BY id LIMIT " + CHUNK, String.class, after);
+            if (ids.isEmpty()) break;
+            ctx.tx().executeWithoutResult(s -> {
+                ctx.jdbc().update(copy + " WHERE id IN (" + String.join(",", Collections.nCopies(ids.size(), "?")) + ")",
+                        ids.toArray());
+                ctx.progress(ids.get(ids.size() - 1), ids.size());
+            });
+            if (ids.size() < CHUNK) break;
+            Thread.sleep(PAUSE_MS);
+        }
+
+        // Rows inserted behind the cursor while copying have no _text value yet; the swap catches them up.
+        String pending = String.join(" OR ", columns.stream().map(c -> "(" + c + " IS NOT NULL AND " + c + "_text IS NULL)").toList());
+        for (int attempt = 1; ; attempt++) {
+            try {
+                ctx.tx().executeWithoutResult(s -> {
+                    ctx.jdbc().execute("SET LOCAL lock_timeout = '5s'");
+                    ctx.jdbc().update(copy + " WHERE " + pending);
+                    for (String c : columns) {
+                        ctx.jdbc().execute("ALTER TABLE scan_jobs DROP COLUMN " + c);
+                        ctx.jdbc().execute("ALTER TABLE scan_jobs RENAME COLUMN " + c + "_text TO " + c);
+                    }
+                });
+                return;
+            } catch (Exception e) {
+                if (attempt >= SWAP_ATTEMPTS) throw e;
+                log.info("scan_jobs column swap attempt {} did not get its lock ({}), retrying", attempt, e.getMessage());
+                Thread.sleep(attempt * 1000L);
+            }
+        }
+    }
+
+    /** Keeps a value already copied by an earlier chunk. */
+    private static String copyExpr(String c) {
+        return c + "_text = CASE WHEN " + c + " IS NULL THEN NULL WHEN " + c + "_text IS NOT NULL THEN " + c + "_text "
+                + "ELSE convert_from(lo_get(" + c + "), 'UTF8') END";
+    }
+
+    private static boolean isOid(MigrationRunner.Context ctx, String column) {
+        String dt = ctx.jdbc().query(
+                "SELECT data_type FROM information_schema.columns "
+                        + "WHERE table_schema = current_schema() AND table_name = 'scan_jobs' AND column_name = ?",
+                rs -> rs.next() ? rs.getString(1) : null, column);
+        return dt != null && dt.equalsIgnoreCase("oid");
+    }
+}
@@ -0,0 +1,18 @@
+package info.trizub.clamav.webclient.db;
+
+/**
+ * A versioned, run-once schema or data migration, picked up by MigrationRunner as a Spring bean.
+ *
+ * Migrations run in version order on a background thread after startup, while the app serves
+ * traffic, so run() must be safe to execute concurrently with normal reads and writes. It must also
+ * be safe to run again after an interruption: heavy rewrites work in keyed chunks and resume from
+ * MigrationRunner.Context#cursor().
+ */
+public interface Migration {
+
+    int version();
+
+    String description();
+
+    void run(MigrationRunner.Context ctx) throws Exception;
+}
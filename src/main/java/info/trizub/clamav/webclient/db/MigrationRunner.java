@@ -0,0 +1,168 @@
+package info.trizub.clamav.webclient.db;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Runs the versioned migrations (beans implementing Migration) that schema_migrations does not
+ * list as DONE, in version order, on a background thread once the app is ready.
+ *
+ * ddl-auto=update still creates new tables and columns; migrations cover what it cannot do, such
+ * as type changes and data rewrites. A failed migration is recorded as FAILED with its error and
+ * blocks later versions until the next start, when it resumes from its saved cursor.
+ */
+@Component
+public class MigrationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(MigrationRunner.class);
+
+    /**
+     * What a running migration sees: database access and its own resume state.
+     */
+    public final class Context {
+
+        private final Migration migration;
+        private String cursor;
+        private long rowsDone;
+
+        private Context(Migration migration, String cursor, long rowsDone) {
+            this.migration = migration;
+            this.cursor = cursor;
+            this.rowsDone = rowsDone;
+        }
+
+        public JdbcTemplate jdbc() { return jdbc; }
+        public TransactionTemplate tx() { return tx; }
+        public boolean isPostgres() { return database.isPostgres(); }
+        public boolean isH2() { return database.isH2(); }
+
+        /** Position saved by the last completed chunk, or null when starting from the beginning. */
+        public String cursor() { return cursor; }
+        public long rowsDone() { return rowsDone; }
+
+        public void total(long estimate) {
+            jdbc.update("UPDATE schema_migrations SET rows_total = ? WHERE version = ?", estimate, migration.version());
+        }
+
+        /**
+         * Record a completed chunk. Call it inside the chunk's transaction, so the cursor never
+         * runs ahead of the data.
+         */
+        public void progress(String cursor, long rows) {
+            this.cursor = cursor;
+            this.rowsDone += rows;
+            jdbc.update("UPDATE schema_migrations SET cursor_value = ?, rows_done = ? WHERE version = ?",
+                    cursor, rowsDone, migration.version());
+        }
+    }
+
+    private final List<Migration> migrations;
+    private final DatabaseType database;
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+
+    public MigrationRunner(List<Migration> migrations, DatabaseType database, JdbcTemplate jdbc,
+                           PlatformTransactionManager txManager) {
+        this.migrations = migrations.stream().sorted(Comparator.comparingInt(Migration::version)).toList();
+        this.database = database;
+        this.jdbc = jdbc;
+        this.tx = new TransactionTemplate(txManager);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        Thread t = new Thread(this::runPending, "schema-migrations");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void runPending() {
+        for (Migration m : migrations) {
+            Map<String, Object> row = state(m.version());
+            if (row != null && "DONE".equals(row.get("status"))) continue;
+            if (!runOne(m, row)) return;
+        }
+    }
+
+    private boolean runOne(Migration m, Map<String, Object> row) {
+        String cursor = row == null ? null : (String) row.get("cursor_value");
+        long done = row == null || row.get("rows_done") == null ? 0 : ((Number) row.get("rows_done")).longValue();
+        Timestamp now = Timestamp.from(Instant.now());
+        try {
+            if (row == null) {
+                jdbc.update("INSERT INTO schema_migrations (version, description, status, rows_done, started_at) "
+                        + "VALUES (?, ?, 'RUNNING', 0, ?)", m.version(), m.description(), now);
+            } else {
+                jdbc.update("UPDATE schema_migrations SET status = 'RUNNING', error = NULL, started_at = ? WHERE version = ?",
+                        now, m.version());
+            }
+        } catch (Exception e) {
+            log.error("Cannot record migration {} in schema_migrations: {}", m.version(), e.getMessage());
+            return false;
+        }
+
+        log.info("Migration {} ({}) {}", m.version(), m.description(), cursor == null ? "started" : "resumed at " + cursor);
+        try {
+            m.run(new Context(m, cursor, done));
+            jdbc.update("UPDATE schema_migrations SET status = 'DONE', finished_at = ? WHERE version = ?",
+                    Timestamp.from(Instant.now()), m.version());
+            log.info("Migration {} done", m.version());
+            return true;
+        } catch (Exception e) {
+            String msg = String.valueOf(e.getMessage());
+            log.error("Migration {} ({}) failed; it resumes on the next start. Error: {}", m.version(), m.description(), msg, e);
+            try {
+                jdbc.update("UPDATE schema_migrations SET status = 'FAILED', error = ? WHERE version = ?",
+                        msg.length() > 1024 ? msg.substring(0, 1024) : msg, m.version());
+            } catch (Exception ignore) {
+                // already logged above
+            }
+            return false;
+        }
+    }
+
+    private Map<String, Object> state(int version) {
+        List<Map<String, Object>> rows = jdbc.queryForList("SELECT * FROM schema_migrations WHERE version = ?", version);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    /**
+     * Every known migration with its recorded state (PENDING if it never started).
+     */
+    public List<Map<String, Object>> status() {
+        List<Map<String, Object>> out = new ArrayList<>();
+        for (Migration m : migrations) {
+            Map<String, Object> row = state(m.version());
+            Map<String, Object> s = new LinkedHashMap<>();
+            s.put("version", m.version());
+            s.put("description", m.description());
+            s.put("status", row == null ? "PENDING" : row.get("status"));
+            if (row != null) {
+                s.put("rowsDone", row.get("rows_done"));
+                s.put("rowsTotal", row.get("rows_total"));
+                s.put("cursor", row.get("cursor_value"));
+                s.put("startedAt", instant(row.get("started_at")));
+                s.put("finishedAt", instant(row.get("finished_at")));
+                s.put("error", row.get("error"));
+            }
+            out.add(s);
+        }
+        return out;
+    }
+
+    private static Object instant(Object v) {
+        if (v instanceof Timestamp t) return t.toInstant();
+        if (v instanceof java.time.OffsetDateTime o) return o.toInstant();
+        return v;
+    }
+}
@@ -0,0 +1,38 @@
+package info.trizub.clamav.webclient.model;
+
+import jakarta.persistence.*;
+import java.time.Instant;
+
+/**
+ * Where an archived job (and the archived audit events that mention it) can be found: one row per
+ * job id and archive segment. Written through JDBC by RetentionService.
+ */
+@Entity
+@Table(name = "archive_index", indexes = {
+        @Index(name = "idx_archive_index_job", columnList = "jobId")
+})
+public class ArchiveIndexEntry {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false, length = 64)
+    private String jobId;
+
+    @Column(nullable = false, length = 16)
+    private String source; // scan_jobs / audit_events
+
+    @Column(nullable = false, length = 1024)
+    private String segment; // relative to app.retention.archiveDir
+
+    private Instant archivedAt;
+
+    public ArchiveIndexEntry() {}
+
+    public Long getId() { return id; }
+    public String getJobId() { return jobId; }
+    public String getSource() { return source; }
+    public String getSegment() { return segment; }
+    public Instant getArchivedAt() { return archivedAt; }
+}
@@ -4,7 +4,10 @@ import jakarta.persistence.*;
 import java.time.Instant;
 
 @Entity
-@Table(name = "audit_events")
+@Table(name = "audit_events", indexes = {
+        @Index(name = "idx_audit_events_at", columnList = "at, id"),
+        @Index(name = "idx_audit_events_job", columnList = "jobId")
+})
 public class AuditEvent {
 
     @Id
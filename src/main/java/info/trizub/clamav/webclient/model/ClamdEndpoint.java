@@ -3,6 +3,8 @@ package info.trizub.clamav.webclient.model;
 import jakarta.persistence.*;
 import xyz.capybara.clamav.Platform;
 
+import java.time.Instant;
+
 @Entity
 @Table(name = "clamd_endpoints")
 public class ClamdEndpoint {
@@ -27,6 +29,14 @@ public class ClamdEndpoint {
     @Column(nullable = false)
     private boolean enabled = true;
 
+    // Max scans running against this endpoint at once (virtual-thread executor); null = app.concurrentScans
+    private Integer maxConcurrency;
+
+    // Last signature version seen from VERSION and when it changed to it.
+    @Column(length = 64)
+    private String signatureVersion;
+    private Instant signatureVersionAt;
+
     public ClamdEndpoint() {}
 
     public ClamdEndpoint(String name, String host, int port, Platform platform) {
@@ -47,4 +57,8 @@ public class ClamdEndpoint {
     public void setPlatform(Platform platform) { this.platform = platform; }
     public boolean isEnabled() { return enabled; }
     public void setEnabled(boolean enabled) { this.enabled = enabled; }
+    public Integer getMaxConcurrency() { return maxConcurrency; }
+    public void setMaxConcurrency(Integer maxConcurrency) { this.maxConcurrency = maxConcurrency; }
+    public String getSignatureVersion() { return signatureVersion; }
+    public Instant getSignatureVersionAt() { return signatureVersionAt; }
 }
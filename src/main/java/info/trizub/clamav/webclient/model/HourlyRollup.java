@@ -0,0 +1,43 @@
+package info.trizub.clamav.webclient.model;
+
+import jakarta.persistence.*;
+import java.time.Instant;
+
+/**
+ * Hourly counts left behind when jobs or audit events are archived (see RetentionService):
+ * scan_jobs rows by type and verdict, audit_events rows by action and outcome.
+ * Rows are upserted in batches through JDBC, not through this entity.
+ */
+@Entity
+@Table(name = "hourly_rollups", indexes = {
+        @Index(name = "idx_hourly_rollups_key", columnList = "source, hourStart, category, outcome", unique = true)
+})
+public class HourlyRollup {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false, length = 16)
+    private String source; // scan_jobs / audit_events
+
+    @Column(nullable = false)
+    private Instant hourStart;
+
+    @Column(nullable = false, length = 64)
+    private String category; // job type / audit action
+
+    @Column(nullable = false, length = 64)
+    private String outcome; // verdict / audit outcome, "NONE" if unset
+
+    private long total;
+
+    public HourlyRollup() {}
+
+    public Long getId() { return id; }
+    public String getSource() { return source; }
+    public Instant getHourStart() { return hourStart; }
+    public String getCategory() { return category; }
+    public String getOutcome() { return outcome; }
+    public long getTotal() { return total; }
+}
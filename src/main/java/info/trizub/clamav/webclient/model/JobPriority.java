@@ -0,0 +1,10 @@
+package info.trizub.clamav.webclient.model;
+
+/**
+ * Scheduling class of a scan job; declared from highest to lowest priority.
+ */
+public enum JobPriority {
+    INTERACTIVE,
+    API,
+    BACKGROUND
+}
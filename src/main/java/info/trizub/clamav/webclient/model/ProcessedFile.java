@@ -5,7 +5,9 @@ import java.time.Instant;
 
 @Entity
 @Table(name = "processed_files", indexes = {
-        @Index(name = "idx_processed_path", columnList = "path", unique = true)
+        @Index(name = "idx_processed_path", columnList = "path", unique = true),
+        @Index(name = "idx_processed_file_key", columnList = "fileKey"),
+        @Index(name = "idx_processed_last_modified", columnList = "lastModified")
 })
 public class ProcessedFile {
 
@@ -22,6 +24,15 @@ public class ProcessedFile {
     @Column(length = 128)
     private String sha256;
 
+    // BasicFileAttributes.fileKey() (device + inode on Unix); lets the watcher recognise moved files.
+    @Column(length = 256)
+    private String fileKey;
+
+    // Signature version the file was last found clean with; null until then and after it changes.
+    @Column(length = 64)
+    private String cleanVersion;
+    private Instant cleanAt;
+
     private Instant processedAt = Instant.now();
 
     public ProcessedFile() {}
@@ -42,5 +53,9 @@ public class ProcessedFile {
     public void setSizeBytes(long sizeBytes) { this.sizeBytes = sizeBytes; }
     public String getSha256() { return sha256; }
     public void setSha256(String sha256) { this.sha256 = sha256; }
+    public String getFileKey() { return fileKey; }
+    public void setFileKey(String fileKey) { this.fileKey = fileKey; }
+    public String getCleanVersion() { return cleanVersion; }
+    public Instant getCleanAt() { return cleanAt; }
     public Instant getProcessedAt() { return processedAt; }
 }
@@ -4,7 +4,16 @@ import jakarta.persistence.*;
 import java.time.Instant;
 
 @Entity
-@Table(name = "scan_jobs")
+@Table(name = "scan_jobs", indexes = {
+        // Job lists are ordered by (submittedAt, id) and paged by keyset; each filter column leads
+        // an index that continues in that order.
+        @Index(name = "idx_scan_jobs_submitted", columnList = "submittedAt, id"),
+        @Index(name = "idx_scan_jobs_status", columnList = "status, submittedAt, id"),
+        @Index(name = "idx_scan_jobs_verdict", columnList = "verdict, submittedAt, id"),
+        @Index(name = "idx_scan_jobs_submitted_by", columnList = "submittedBy, submittedAt, id"),
+        @Index(name = "idx_scan_jobs_endpoint", columnList = "endpoint_id, submittedAt, id"),
+        @Index(name = "idx_scan_jobs_sha256", columnList = "sha256")
+})
 public class ScanJob {
 
     @Id
@@ -23,6 +32,10 @@ public class ScanJob {
     @Column(length = 16)
     private ScanVerdict verdict;
 
+    @Enumerated(EnumType.STRING)
+    @Column(length = 16)
+    private JobPriority priority;
+
     @Column(nullable = false, length = 2048)
     private String target;
 
@@ -34,10 +47,18 @@ public class ScanJob {
 
     private Long sizeBytes;
 
+    // Fan-out PATH jobs only (app.pathScan.mode=fanout): final per-file counters
+    private Long filesScanned;
+    private Long filesFailed;
+    private Long bytesScanned;
+
     @ManyToOne(fetch = FetchType.EAGER)
     @JoinColumn(name = "endpoint_id")
     private ClamdEndpoint endpoint;
 
+    // Submitted to the "pool" target: endpoint is picked (and recorded) when the job runs
+    private Boolean pooled;
+
     @Column(length = 64)
     private String submittedBy;
 
@@ -67,6 +88,8 @@ public class ScanJob {
     public void setStatus(ScanJobStatus status) { this.status = status; }
     public ScanVerdict getVerdict() { return verdict; }
     public void setVerdict(ScanVerdict verdict) { this.verdict = verdict; }
+    public JobPriority getPriority() { return priority; }
+    public void setPriority(JobPriority priority) { this.priority = priority; }
     public String getTarget() { return target; }
     public void setTarget(String target) { this.target = target; }
     public String getStoredPath() { return storedPath; }
@@ -75,8 +98,16 @@ public class ScanJob {
     public void setSha256(String sha256) { this.sha256 = sha256; }
     public Long getSizeBytes() { return sizeBytes; }
     public void setSizeBytes(Long sizeBytes) { this.sizeBytes = sizeBytes; }
+    public Long getFilesScanned() { return filesScanned; }
+    public void setFilesScanned(Long filesScanned) { this.filesScanned = filesScanned; }
+    public Long getFilesFailed() { return filesFailed; }
+    public void setFilesFailed(Long filesFailed) { this.filesFailed = filesFailed; }
+    public Long getBytesScanned() { return bytesScanned; }
+    public void setBytesScanned(Long bytesScanned) { this.bytesScanned = bytesScanned; }
     public ClamdEndpoint getEndpoint() { return endpoint; }
     public void setEndpoint(ClamdEndpoint endpoint) { this.endpoint = endpoint; }
+    public boolean isPooled() { return Boolean.TRUE.equals(pooled); }
+    public void setPooled(boolean pooled) { this.pooled = pooled; }
     public String getSubmittedBy() { return submittedBy; }
     public void setSubmittedBy(String submittedBy) { this.submittedBy = submittedBy; }
     public Instant getSubmittedAt() { return submittedAt; }
@@ -0,0 +1,53 @@
+package info.trizub.clamav.webclient.model;
+
+import jakarta.persistence.*;
+import java.time.Instant;
+
+/**
+ * Outcome for one file of a fanned-out PATH job (app.pathScan.mode=fanout).
+ * Rows are written in batches by PathFanoutScanner through JDBC, not through this entity.
+ */
+@Entity
+@Table(name = "scan_job_files", indexes = {
+        @Index(name = "idx_scan_job_files_job", columnList = "jobId, id")
+})
+public class ScanJobFile {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false, length = 64)
+    private String jobId;
+
+    @Column(nullable = false, length = 2048)
+    private String path;
+
+    private Long sizeBytes;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private ScanVerdict verdict;
+
+    @Column(length = 1024)
+    private String viruses; // comma-separated signature names
+
+    @Column(columnDefinition = "TEXT")
+    private String errorMessage;
+
+    private Long durationMs;
+
+    private Instant scannedAt;
+
+    public ScanJobFile() {}
+
+    public Long getId() { return id; }
+    public String getJobId() { return jobId; }
+    public String getPath() { return path; }
+    public Long getSizeBytes() { return sizeBytes; }
+    public ScanVerdict getVerdict() { return verdict; }
+    public String getViruses() { return viruses; }
+    public String getErrorMessage() { return errorMessage; }
+    public Long getDurationMs() { return durationMs; }
+    public Instant getScannedAt() { return scannedAt; }
+}
@@ -3,5 +3,6 @@ package info.trizub.clamav.webclient.model;
 public enum ScanJobType {
     UPLOAD,
     PATH,
-    WATCH
+    WATCH,
+    BATCH
 }
@@ -0,0 +1,46 @@
+package info.trizub.clamav.webclient.model;
+
+import jakarta.persistence.*;
+import java.time.Instant;
+
+/**
+ * State of one versioned migration (see MigrationRunner). Chunked migrations keep their resume
+ * position in cursorValue. Written through JDBC by the runner.
+ */
+@Entity
+@Table(name = "schema_migrations")
+public class SchemaMigration {
+
+    @Id
+    private Integer version;
+
+    @Column(nullable = false, length = 255)
+    private String description;
+
+    @Column(nullable = false, length = 16)
+    private String status; // RUNNING / DONE / FAILED
+
+    @Column(length = 255)
+    private String cursorValue;
+
+    private Long rowsDone;
+    private Long rowsTotal; // estimate
+
+    private Instant startedAt;
+    private Instant finishedAt;
+
+    @Column(length = 1024)
+    private String error;
+
+    public SchemaMigration() {}
+
+    public Integer getVersion() { return version; }
+    public String getDescription() { return description; }
+    public String getStatus() { return status; }
+    public String getCursorValue() { return cursorValue; }
+    public Long getRowsDone() { return rowsDone; }
+    public Long getRowsTotal() { return rowsTotal; }
+    public Instant getStartedAt() { return startedAt; }
+    public Instant getFinishedAt() { return finishedAt; }
+    public String getError() { return error; }
+}
@@ -0,0 +1,55 @@
+package info.trizub.clamav.webclient.model;
+
+import jakarta.persistence.*;
+import java.time.Instant;
+
+/**
+ * Persistent tier of the verdict cache: the clamd verdict for a content hash under one
+ * signature database version. A new signature version never matches old entries.
+ */
+@Entity
+@Table(name = "verdict_cache", indexes = {
+        @Index(name = "idx_verdict_cache_created", columnList = "createdAt")
+})
+public class VerdictCacheEntry {
+
+    @Id
+    @Column(length = 192)
+    private String id; // sha256 + "@" + signatureVersion
+
+    @Column(nullable = false, length = 128)
+    private String sha256;
+
+    @Column(nullable = false, length = 64)
+    private String signatureVersion;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private ScanVerdict verdict;
+
+    @Column(columnDefinition = "TEXT")
+    private String foundVirusesJson;
+
+    private Instant createdAt = Instant.now();
+
+    public VerdictCacheEntry() {}
+
+    public VerdictCacheEntry(String sha256, String signatureVersion, ScanVerdict verdict, String foundVirusesJson) {
+        this.id = key(sha256, signatureVersion);
+        this.sha256 = sha256;
+        this.signatureVersion = signatureVersion;
+        this.verdict = verdict;
+        this.foundVirusesJson = foundVirusesJson;
+    }
+
+    public static String key(String sha256, String signatureVersion) {
+        return sha256 + "@" + signatureVersion;
+    }
+
+    public String getId() { return id; }
+    public String getSha256() { return sha256; }
+    public String getSignatureVersion() { return signatureVersion; }
+    public ScanVerdict getVerdict() { return verdict; }
+    public String getFoundVirusesJson() { return foundVirusesJson; }
+    public Instant getCreatedAt() { return createdAt; }
+}
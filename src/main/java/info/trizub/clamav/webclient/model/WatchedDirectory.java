@@ -2,6 +2,8 @@ package info.trizub.clamav.webclient.model;
 
 import jakarta.persistence.*;
 
+import java.time.Instant;
+
 @Entity
 @Table(name = "watched_directories")
 public class WatchedDirectory {
@@ -20,6 +22,26 @@ public class WatchedDirectory {
     @Column(nullable = false)
     private boolean enabled = true;
 
+    // Walk rules (see WatchRules). Globs are comma or newline separated; null = no limit / global default.
+    @Column(length = 2048)
+    private String includeGlobs;
+    @Column(length = 2048)
+    private String excludeGlobs;
+    private Long maxFileSizeBytes;
+    private Integer maxDepth;
+    private Integer pollSeconds;
+
+    // Incremental sweep state: the walk resumes after crawlCursor (relative to path) on the next poll.
+    @Column(length = 4096)
+    private String crawlCursor;
+    private Instant sweepStartedAt;
+    private Long sweepFiles;
+
+    // Last completed sweep
+    private Long lastSweepFiles;
+    private Long lastSweepDurationMs;
+    private Instant lastSweepCompletedAt;
+
     public WatchedDirectory() {}
 
     public WatchedDirectory(String path, ClamdEndpoint endpoint) {
@@ -34,4 +56,20 @@ public class WatchedDirectory {
     public void setEndpoint(ClamdEndpoint endpoint) { this.endpoint = endpoint; }
     public boolean isEnabled() { return enabled; }
     public void setEnabled(boolean enabled) { this.enabled = enabled; }
+    public String getIncludeGlobs() { return includeGlobs; }
+    public void setIncludeGlobs(String includeGlobs) { this.includeGlobs = includeGlobs; }
+    public String getExcludeGlobs() { return excludeGlobs; }
+    public void setExcludeGlobs(String excludeGlobs) { this.excludeGlobs = excludeGlobs; }
+    public Long getMaxFileSizeBytes() { return maxFileSizeBytes; }
+    public void setMaxFileSizeBytes(Long maxFileSizeBytes) { this.maxFileSizeBytes = maxFileSizeBytes; }
+    public Integer getMaxDepth() { return maxDepth; }
+    public void setMaxDepth(Integer maxDepth) { this.maxDepth = maxDepth; }
+    public Integer getPollSeconds() { return pollSeconds; }
+    public void setPollSeconds(Integer pollSeconds) { this.pollSeconds = pollSeconds; }
+    public String getCrawlCursor() { return crawlCursor; }
+    public Instant getSweepStartedAt() { return sweepStartedAt; }
+    public long getSweepFiles() { return sweepFiles == null ? 0 : sweepFiles; }
+    public Long getLastSweepFiles() { return lastSweepFiles; }
+    public Long getLastSweepDurationMs() { return lastSweepDurationMs; }
+    public Instant getLastSweepCompletedAt() { return lastSweepCompletedAt; }
 }
@@ -2,9 +2,18 @@ package info.trizub.clamav.webclient.repo;
 
 import info.trizub.clamav.webclient.model.ClamdEndpoint;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Instant;
 import java.util.Optional;
 
 public interface ClamdEndpointRepository extends JpaRepository<ClamdEndpoint, Long> {
     Optional<ClamdEndpoint> findByName(String name);
+
+    @Modifying
+    @Transactional
+    @Query("update ClamdEndpoint e set e.signatureVersion = :version, e.signatureVersionAt = :at where e.id = :id")
+    int saveSignatureVersion(Long id, String version, Instant at);
 }
@@ -0,0 +1,14 @@
+package info.trizub.clamav.webclient.repo;
+
+import info.trizub.clamav.webclient.model.ScanJobFile;
+import info.trizub.clamav.webclient.model.ScanVerdict;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.List;
+
+public interface ScanJobFileRepository extends JpaRepository<ScanJobFile, Long> {
+
+    List<ScanJobFile> findTop1000ByJobIdAndIdGreaterThanOrderByIdAsc(String jobId, Long afterId);
+
+    List<ScanJobFile> findTop1000ByJobIdAndVerdictNotAndIdGreaterThanOrderByIdAsc(String jobId, ScanVerdict verdict, Long afterId);
+}
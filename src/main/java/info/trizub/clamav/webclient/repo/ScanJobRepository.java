@@ -1,10 +1,73 @@
 package info.trizub.clamav.webclient.repo;
 
+import info.trizub.clamav.webclient.model.ClamdEndpoint;
+import info.trizub.clamav.webclient.model.JobPriority;
 import info.trizub.clamav.webclient.model.ScanJob;
+import info.trizub.clamav.webclient.model.ScanVerdict;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Instant;
 import java.util.List;
 
-public interface ScanJobRepository extends JpaRepository<ScanJob, String> {
+public interface ScanJobRepository extends JpaRepository<ScanJob, String>, JpaSpecificationExecutor<ScanJob> {
     List<ScanJob> findTop200ByOrderBySubmittedAtDesc();
+
+    /** What startup recovery needs of a queued job. */
+    interface QueuedJob {
+        String getId();
+        JobPriority getPriority();
+        Instant getSubmittedAt();
+    }
+
+    // Startup recovery: QUEUED jobs submitted before `before`, paged by keyset on (submittedAt, id).
+
+    @Query("select j.id as id, j.priority as priority, j.submittedAt as submittedAt from ScanJob j "
+            + "where j.status = info.trizub.clamav.webclient.model.ScanJobStatus.QUEUED and j.submittedAt < :before "
+            + "order by j.submittedAt, j.id")
+    List<QueuedJob> findQueued(Instant before, Limit limit);
+
+    @Query("select j.id as id, j.priority as priority, j.submittedAt as submittedAt from ScanJob j "
+            + "where j.status = info.trizub.clamav.webclient.model.ScanJobStatus.QUEUED and j.submittedAt < :before "
+            + "and (j.submittedAt > :at or (j.submittedAt = :at and j.id > :id)) "
+            + "order by j.submittedAt, j.id")
+    List<QueuedJob> findQueuedAfter(Instant before, Instant at, String id, Limit limit);
+
+    // Job state transitions: one conditional UPDATE each, no load-modify-save.
+    // They return the number of rows changed; 0 means the job was not in the expected state.
+
+    @Modifying
+    @Transactional
+    @Query("update ScanJob j set j.status = info.trizub.clamav.webclient.model.ScanJobStatus.RUNNING, j.startedAt = :at "
+            + "where j.id = :id and j.status = info.trizub.clamav.webclient.model.ScanJobStatus.QUEUED")
+    int markRunning(String id, Instant at);
+
+    @Modifying
+    @Transactional
+    @Query("update ScanJob j set j.status = info.trizub.clamav.webclient.model.ScanJobStatus.FINISHED, j.verdict = :verdict, "
+            + "j.foundVirusesJson = :foundVirusesJson, j.errorMessage = :errorMessage, j.finishedAt = :at "
+            + "where j.id = :id and j.status = info.trizub.clamav.webclient.model.ScanJobStatus.RUNNING")
+    int finish(String id, ScanVerdict verdict, String foundVirusesJson, String errorMessage, Instant at);
+
+    /** Jobs left RUNNING by a previous run (started before `before`) go back to QUEUED. */
+    @Modifying
+    @Transactional
+    @Query("update ScanJob j set j.status = info.trizub.clamav.webclient.model.ScanJobStatus.QUEUED, j.startedAt = null "
+            + "where j.status = info.trizub.clamav.webclient.model.ScanJobStatus.RUNNING "
+            + "and (j.startedAt is null or j.startedAt < :before)")
+    int requeueRunning(Instant before);
+
+    @Modifying
+    @Transactional
+    @Query("update ScanJob j set j.endpoint = :endpoint where j.id = :id")
+    int assignEndpoint(String id, ClamdEndpoint endpoint);
+
+    @Modifying
+    @Transactional
+    @Query("update ScanJob j set j.quarantinePath = :quarantinePath where j.id = :id")
+    int setQuarantinePath(String id, String quarantinePath);
 }
@@ -0,0 +1,17 @@
+package info.trizub.clamav.webclient.repo;
+
+import info.trizub.clamav.webclient.model.VerdictCacheEntry;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+
+public interface VerdictCacheRepository extends JpaRepository<VerdictCacheEntry, String> {
+
+    @Modifying
+    @Transactional
+    @Query("delete from VerdictCacheEntry e where e.createdAt < :cutoff")
+    int deleteOlderThan(Instant cutoff);
+}
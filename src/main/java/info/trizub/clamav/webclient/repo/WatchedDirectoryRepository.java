@@ -2,9 +2,27 @@ package info.trizub.clamav.webclient.repo;
 
 import info.trizub.clamav.webclient.model.WatchedDirectory;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Instant;
 import java.util.List;
 
 public interface WatchedDirectoryRepository extends JpaRepository<WatchedDirectory, Long> {
     List<WatchedDirectory> findByEnabledTrue();
+
+    // Sweep bookkeeping only touches its own columns, so it cannot undo a concurrent enable/disable.
+
+    @Modifying
+    @Transactional
+    @Query("update WatchedDirectory w set w.crawlCursor = :cursor, w.sweepStartedAt = :startedAt, w.sweepFiles = :files "
+            + "where w.id = :id")
+    int saveSweepProgress(Long id, String cursor, Instant startedAt, long files);
+
+    @Modifying
+    @Transactional
+    @Query("update WatchedDirectory w set w.crawlCursor = null, w.sweepStartedAt = null, w.sweepFiles = null, "
+            + "w.lastSweepFiles = :files, w.lastSweepDurationMs = :durationMs, w.lastSweepCompletedAt = :at where w.id = :id")
+    int completeSweep(Long id, long files, long durationMs, Instant at);
 }
@@ -0,0 +1,83 @@
+package info.trizub.clamav.webclient.service;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Archive segments: gzip-compressed NDJSON files, one JSON object per line.
+ *
+ * A segment is written to a ".tmp" sibling, synced and then renamed into place, so a segment that
+ * exists is complete. Readers stream it line by line.
+ */
+final class ArchiveSegments {
+
+    private ArchiveSegments() {}
+
+    static final class Writer implements Closeable {
+
+        private final Path target;
+        private final Path tmp;
+        private final FileOutputStream file;
+        private final GZIPOutputStream gzip;
+        private final BufferedWriter out;
+        private long lines;
+        private boolean committed;
+
+        Writer(Path target) throws IOException {
+            Files.createDirectories(target.getParent());
+            this.target = target;
+            this.tmp = target.resolveSibling(target.getFileName() + ".tmp");
+            this.file = new FileOutputStream(tmp.toFile());
+            this.gzip = new GZIPOutputStream(file, 64 * 1024);
+            this.out = new BufferedWriter(new OutputStreamWriter(gzip, StandardCharsets.UTF_8), 64 * 1024);
+        }
+
+        void write(String json) throws IOException {
+            out.write(json);
+            out.write('\n');
+            lines++;
+        }
+
+        long lines() {
+            return lines;
+        }
+
+        void commit() throws IOException {
+            out.flush();
+            gzip.finish();
+            file.getFD().sync();
+            out.close();
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (committed) return;
+            try {
+                out.close();
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+    }
+
+    /**
+     * Feed the segment's lines to the consumer until it returns false.
+     */
+    static void read(Path segment, Predicate<String> consumer) throws IOException {
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(segment), 64 * 1024), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!line.isEmpty() && !consumer.test(line)) return;
+            }
+        }
+    }
+}
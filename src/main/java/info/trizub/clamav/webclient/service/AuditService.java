@@ -1,24 +1,217 @@
 package info.trizub.clamav.webclient.service;
 
-import info.trizub.clamav.webclient.model.AuditEvent;
-import info.trizub.clamav.webclient.repo.AuditEventRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records audit events.
+ *
+ * Events go to a bounded in-memory queue and a background writer inserts them every
+ * app.audit.flushMs as JDBC batches of up to app.audit.batchSize rows, so requests never wait for
+ * an insert. Events that do not fit in the queue (app.audit.queueCapacity), and batches the
+ * database rejects, are appended to a local spill file (app.audit.spillFile, NDJSON, synced on
+ * every append). The writer loads the spill file back once the database accepts writes again,
+ * including after a restart. On shutdown the queue is flushed, falling back to the spill file.
+ *
+ * With app.audit.flushMs=0 every event is inserted synchronously. Settings take effect after a restart.
+ */
 @Service
 public class AuditService {
 
-    private final AuditEventRepository repo;
+    private static final Logger log = LoggerFactory.getLogger(AuditService.class);
+
+    private static final String INSERT_SQL =
+            "INSERT INTO audit_events (at, username, action, details, outcome, job_id, ip, user_agent) "
+                    + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    record Entry(Instant at, String username, String action, String details, String outcome,
+                 String jobId, String ip, String userAgent) {}
+
+    private final SettingsService settings;
+    private final JdbcTemplate jdbc;
+    private final ObjectMapper mapper;
+    private final TransactionTemplate tx;
+    private final Object spillLock = new Object();
+
+    private BlockingQueue<Entry> pending;
+    private Path spillFile;
+    private int batchSize;
+    private boolean async;
+    private ScheduledExecutorService flusher;
+
+    public AuditService(SettingsService settings, JdbcTemplate jdbc, ObjectMapper mapper,
+                        PlatformTransactionManager txManager) {
+        this.settings = settings;
+        this.jdbc = jdbc;
+        this.mapper = mapper;
+        this.tx = new TransactionTemplate(txManager);
+    }
+
+    @PostConstruct
+    public void init() {
+        spillFile = settings.auditSpillFile();
+        batchSize = Math.max(1, settings.auditBatchSize());
+        long flushMs = settings.auditFlushMs();
+        async = flushMs > 0;
+        pending = new ArrayBlockingQueue<>(async ? Math.max(1, settings.auditQueueCapacity()) : 1);
+        // Also runs in synchronous mode, to load the spill file back
+        long period = async ? flushMs : 5000;
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "audit-writer");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flushSafely, period, period, TimeUnit.MILLISECONDS);
+        if (async) log.info("Audit events are written in batches every {} ms", flushMs);
+    }
 
-    public AuditService(AuditEventRepository repo) {
-        this.repo = repo;
+    @PreDestroy
+    public void shutdown() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        while (!pending.isEmpty()) flush();
     }
 
     public void record(Authentication auth, HttpServletRequest req, String action, String details, String outcome, String jobId) {
         String user = auth != null ? auth.getName() : null;
         String ip = req != null ? req.getRemoteAddr() : null;
         String ua = req != null ? req.getHeader("User-Agent") : null;
-        repo.save(new AuditEvent(user, action, details, outcome, jobId, ip, ua));
+        Entry e = new Entry(Instant.now(), user, action, details, outcome, jobId, ip, ua);
+        if (!async) {
+            write(List.of(e));
+        } else if (!pending.offer(e)) {
+            // No insert on the request thread; the writer loads the spill file back.
+            log.debug("Audit queue full, spilling event {}", action);
+            spill(List.of(e));
+        }
+    }
+
+    private void flushSafely() {
+        try {
+            replaySpill();
+            while (!pending.isEmpty()) flush();
+        } catch (Exception e) {
+            log.error("Audit flush failed", e);
+        }
+    }
+
+    private void flush() {
+        List<Entry> batch = new ArrayList<>(batchSize);
+        pending.drainTo(batch, batchSize);
+        if (!batch.isEmpty()) write(batch);
+    }
+
+    /** Insert the batch; if that fails, spill it. */
+    private void write(List<Entry> batch) {
+        try {
+            insert(batch);
+        } catch (Exception e) {
+            log.warn("Could not write {} audit events ({}), spilling them to {}", batch.size(), e.getMessage(), spillFile);
+            spill(batch);
+        }
+    }
+
+    private void insert(List<Entry> batch) {
+        List<Object[]> args = new ArrayList<>(batch.size());
+        for (Entry e : batch) {
+            // Column lengths of AuditEvent; one oversized value would otherwise fail the whole batch
+            args.add(new Object[]{Timestamp.from(e.at()), truncate(e.username(), 64), truncate(e.action(), 64),
+                    truncate(e.details(), 1024), truncate(e.outcome(), 64), truncate(e.jobId(), 64),
+                    truncate(e.ip(), 64), truncate(e.userAgent(), 255)});
+        }
+        jdbc.batchUpdate(INSERT_SQL, args);
+    }
+
+    private void spill(List<Entry> batch) {
+        StringBuilder sb = new StringBuilder();
+        try {
+            for (Entry e : batch) sb.append(mapper.writeValueAsString(e)).append('\n');
+            synchronized (spillLock) {
+                Files.createDirectories(spillFile.toAbsolutePath().getParent());
+                try (FileChannel ch = FileChannel.open(spillFile, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                    ByteBuffer buf = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+                    while (buf.hasRemaining()) ch.write(buf);
+                    ch.force(false);
+                }
+            }
+        } catch (IOException e) {
+            log.error("Lost {} audit events: spill file {} not writable: {}", batch.size(), spillFile, e.getMessage());
+        }
+    }
+
+    /**
+     * Load spilled events back into the database in one transaction. The spill file is first
+     * renamed aside, so events spilled meanwhile start a new file; if loading fails the renamed
+     * file is kept and retried on the next flush.
+     */
+    private void replaySpill() throws IOException {
+        Path replay = spillFile.resolveSibling(spillFile.getFileName() + ".replay");
+        if (!Files.exists(replay)) {
+            synchronized (spillLock) {
+                if (!Files.exists(spillFile)) return;
+                Files.move(spillFile, replay, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+        List<Entry> entries = new ArrayList<>();
+        try (BufferedReader in = Files.newBufferedReader(replay, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isBlank()) continue;
+                try {
+                    entries.add(mapper.readValue(line, Entry.class));
+                } catch (IOException e) {
+                    log.warn("Skipping unreadable spilled audit event: {}", e.getMessage());
+                }
+            }
+        }
+        try {
+            tx.executeWithoutResult(s -> {
+                for (int i = 0; i < entries.size(); i += batchSize) {
+                    insert(entries.subList(i, Math.min(entries.size(), i + batchSize)));
+                }
+            });
+        } catch (Exception e) {
+            log.debug("Spilled audit events not loaded yet: {}", e.getMessage());
+            return;
+        }
+        Files.delete(replay);
+        if (!entries.isEmpty()) log.info("Loaded {} spilled audit events", entries.size());
+    }
+
+    private static String truncate(String s, int max) {
+        return s == null || s.length() <= max ? s : s.substring(0, max);
     }
 }
@@ -1,13 +1,82 @@
 package info.trizub.clamav.webclient.service;
 
+import info.trizub.clamav.webclient.clamd.ClamdConnectionPool;
+import info.trizub.clamav.webclient.clamd.ClamdSession;
 import info.trizub.clamav.webclient.model.ClamdEndpoint;
 import org.springframework.stereotype.Service;
 import xyz.capybara.clamav.ClamavClient;
+import xyz.capybara.clamav.ClamavException;
+import xyz.capybara.clamav.commands.scan.result.ScanResult;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Entry point for talking to clamd. When app.clamd.pool.enabled is true, ping/version/stats and
+ * stream scans go over pooled IDSESSION connections; otherwise (and for directory scans, whose
+ * multi-line replies cannot be framed inside a session) a one-shot ClamavClient is used.
+ */
 @Service
 public class ClamavClientProvider {
 
+    private final SettingsService settings;
+    private final ClamdConnectionPool pool;
+    // ClamavClient asks clamd for VERSIONCOMMANDS on first use, so keep one per address.
+    private final Map<String, ClamavClient> clients = new ConcurrentHashMap<>();
+
+    public ClamavClientProvider(SettingsService settings, ClamdConnectionPool pool) {
+        this.settings = settings;
+        this.pool = pool;
+    }
+
     public ClamavClient clientFor(ClamdEndpoint ep) {
-        return new ClamavClient(ep.getHost(), ep.getPort(), ep.getPlatform());
+        String key = ep.getHost() + ":" + ep.getPort() + ":" + ep.getPlatform();
+        return clients.computeIfAbsent(key, k -> new ClamavClient(ep.getHost(), ep.getPort(), ep.getPlatform()));
+    }
+
+    public void ping(ClamdEndpoint ep) {
+        if (!settings.clamdPoolEnabled()) {
+            clientFor(ep).ping();
+            return;
+        }
+        pooled(ep, true, ClamdSession::ping);
+    }
+
+    public String version(ClamdEndpoint ep) {
+        if (!settings.clamdPoolEnabled()) return clientFor(ep).version();
+        return pooled(ep, true, ClamdSession::version);
+    }
+
+    public String stats(ClamdEndpoint ep) {
+        if (!settings.clamdPoolEnabled()) return clientFor(ep).stats();
+        return pooled(ep, true, ClamdSession::stats);
+    }
+
+    public ScanResult scan(ClamdEndpoint ep, InputStream in) {
+        if (!settings.clamdPoolEnabled()) return clientFor(ep).scan(in);
+        return pooled(ep, false, s -> s.instream(in));
+    }
+
+    /**
+     * Scan one file that clamd can read itself (SCAN, not INSTREAM).
+     */
+    public ScanResult scanFile(ClamdEndpoint ep, Path file) {
+        if (!settings.clamdPoolEnabled()) return clientFor(ep).scan(file, false);
+        return pooled(ep, true, s -> s.scanFile(file));
+    }
+
+    public Map<String, Object> poolStats() {
+        return Map.of("enabled", settings.clamdPoolEnabled(), "endpoints", pool.stats());
+    }
+
+    private <T> T pooled(ClamdEndpoint ep, boolean retryable, ClamdConnectionPool.SessionCall<T> call) {
+        try {
+            return pool.execute(ep, retryable, call);
+        } catch (IOException e) {
+            throw new ClamavException(e);
+        }
     }
 }
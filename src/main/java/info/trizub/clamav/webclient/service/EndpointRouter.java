@@ -0,0 +1,120 @@
+package info.trizub.clamav.webclient.service;
+
+import info.trizub.clamav.webclient.model.ClamdEndpoint;
+import info.trizub.clamav.webclient.repo.ClamdEndpointRepository;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Picks a clamd endpoint for jobs submitted to the "pool" routing target.
+ *
+ * Every scan reports to the router (pooled or not), so the numbers reflect the real load:
+ * - outstanding: scans currently running against the endpoint
+ * - EWMA latency of successful scans
+ * - a short cooldown after a connection failure, during which the endpoint is skipped
+ *
+ * app.routing.strategy=least-outstanding (default) picks the fewest outstanding scans, ties broken
+ * by latency; "ewma" picks the lowest expected wait, latency * (outstanding + 1).
+ */
+@Service
+public class EndpointRouter {
+
+    private static final double ALPHA = 0.3;
+    private static final long ENDPOINT_LIST_TTL_MS = 5000;
+
+    private final SettingsService settings;
+    private final ClamdEndpointRepository endpointRepo;
+    private final Map<Long, Stats> stats = new ConcurrentHashMap<>();
+
+    private volatile List<ClamdEndpoint> enabled = List.of();
+    private volatile long enabledLoadedAtMs;
+
+    private static final class Stats {
+        final AtomicInteger outstanding = new AtomicInteger();
+        volatile double ewmaMs = -1;
+        volatile long downUntilMs;
+    }
+
+    public EndpointRouter(SettingsService settings, ClamdEndpointRepository endpointRepo) {
+        this.settings = settings;
+        this.endpointRepo = endpointRepo;
+    }
+
+    /**
+     * Best enabled endpoint not in exclude, or null if none is left. Endpoints in cooldown are
+     * only used when nothing else is available.
+     */
+    public ClamdEndpoint choose(Set<Long> exclude) {
+        long now = System.currentTimeMillis();
+        boolean ewma = "ewma".equalsIgnoreCase(settings.routingStrategy());
+        ClamdEndpoint best = null;
+        double bestScore = Double.MAX_VALUE;
+        boolean bestDown = true;
+        for (ClamdEndpoint ep : enabledEndpoints()) {
+            if (exclude.contains(ep.getId())) continue;
+            Stats s = stats(ep.getId());
+            boolean down = s.downUntilMs > now;
+            int out = s.outstanding.get();
+            double latency = s.ewmaMs < 0 ? 0 : s.ewmaMs;
+            double score = ewma ? (latency + 1) * (out + 1) : out + latency / 1_000_000d;
+            if (best == null || (bestDown && !down) || (down == bestDown && score < bestScore)) {
+                best = ep;
+                bestScore = score;
+                bestDown = down;
+            }
+        }
+        return best;
+    }
+
+    public void begin(ClamdEndpoint ep) {
+        if (ep != null && ep.getId() != null) stats(ep.getId()).outstanding.incrementAndGet();
+    }
+
+    public void end(ClamdEndpoint ep) {
+        if (ep != null && ep.getId() != null) stats(ep.getId()).outstanding.decrementAndGet();
+    }
+
+    public void success(ClamdEndpoint ep, long elapsedMs) {
+        if (ep == null || ep.getId() == null) return;
+        Stats s = stats(ep.getId());
+        s.downUntilMs = 0;
+        s.ewmaMs = s.ewmaMs < 0 ? elapsedMs : ALPHA * elapsedMs + (1 - ALPHA) * s.ewmaMs;
+    }
+
+    public void connectionFailure(ClamdEndpoint ep) {
+        if (ep == null || ep.getId() == null) return;
+        stats(ep.getId()).downUntilMs = System.currentTimeMillis() + settings.routingCooldownSeconds() * 1000L;
+    }
+
+    public List<Map<String, Object>> snapshot() {
+        long now = System.currentTimeMillis();
+        List<Map<String, Object>> out = new ArrayList<>();
+        for (ClamdEndpoint ep : enabledEndpoints()) {
+            Stats s = stats(ep.getId());
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("endpointId", ep.getId());
+            m.put("name", ep.getName());
+            m.put("outstanding", s.outstanding.get());
+            m.put("ewmaMs", s.ewmaMs < 0 ? null : Math.round(s.ewmaMs));
+            m.put("down", s.downUntilMs > now);
+            out.add(m);
+        }
+        return out;
+    }
+
+    private Stats stats(Long endpointId) {
+        return stats.computeIfAbsent(endpointId, id -> new Stats());
+    }
+
+    private List<ClamdEndpoint> enabledEndpoints() {
+        long now = System.currentTimeMillis();
+        if (now - enabledLoadedAtMs > ENDPOINT_LIST_TTL_MS) {
+            enabled = endpointRepo.findAll().stream().filter(ClamdEndpoint::isEnabled).toList();
+            enabledLoadedAtMs = now;
+        }
+        return enabled;
+    }
+}
@@ -1,5 +1,6 @@
 package info.trizub.clamav.webclient.service;
 
+import info.trizub.clamav.webclient.clamd.ClamdConnectionPool;
 import info.trizub.clamav.webclient.model.ClamdEndpoint;
 import info.trizub.clamav.webclient.repo.ClamdEndpointRepository;
 import org.springframework.stereotype.Service;
@@ -13,10 +14,12 @@ public class EndpointService {
 
     private final ClamdEndpointRepository repo;
     private final SettingsService settings;
+    private final ClamdConnectionPool pool;
 
-    public EndpointService(ClamdEndpointRepository repo, SettingsService settings) {
+    public EndpointService(ClamdEndpointRepository repo, SettingsService settings, ClamdConnectionPool pool) {
         this.repo = repo;
         this.settings = settings;
+        this.pool = pool;
     }
 
     @Transactional
@@ -38,26 +41,30 @@ public class EndpointService {
     }
 
     @Transactional
-    public ClamdEndpoint create(String name, String host, int port, Platform platform, boolean enabled) {
+    public ClamdEndpoint create(String name, String host, int port, Platform platform, boolean enabled, Integer maxConcurrency) {
         ClamdEndpoint ep = new ClamdEndpoint(name, host, port, platform);
         ep.setEnabled(enabled);
+        ep.setMaxConcurrency(maxConcurrency);
         return repo.save(ep);
     }
 
     @Transactional
-    public ClamdEndpoint update(Long id, String name, String host, int port, Platform platform, boolean enabled) {
+    public ClamdEndpoint update(Long id, String name, String host, int port, Platform platform, boolean enabled, Integer maxConcurrency) {
         ClamdEndpoint ep = repo.findById(id).orElseThrow();
         ep.setName(name);
         ep.setHost(host);
         ep.setPort(port);
         ep.setPlatform(platform);
         ep.setEnabled(enabled);
+        ep.setMaxConcurrency(maxConcurrency);
+        pool.invalidate(id);
         return repo.save(ep);
     }
 
     @Transactional
     public void delete(Long id) {
         repo.deleteById(id);
+        pool.invalidate(id);
     }
 
     public ClamdEndpoint defaultEndpoint() {
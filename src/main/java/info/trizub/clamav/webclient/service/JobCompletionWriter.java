@@ -0,0 +1,142 @@
+package info.trizub.clamav.webclient.service;
+
+import info.trizub.clamav.webclient.model.ScanVerdict;
+import info.trizub.clamav.webclient.repo.ScanJobRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the final state of scan jobs.
+ *
+ * With app.jobs.completionBatchMs=0 (default) every completion is its own conditional UPDATE.
+ * With a positive value completions are collected and written every that many milliseconds as
+ * one JDBC batch, so DB load stays flat as the job rate grows. Follow-up work (webhooks) runs
+ * after the batch is written. Takes effect after a restart.
+ */
+@Service
+public class JobCompletionWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(JobCompletionWriter.class);
+
+    private static final int MAX_BATCH = 1000;
+    private static final String FINISH_SQL =
+            "UPDATE scan_jobs SET status = 'FINISHED', verdict = ?, found_viruses_json = ?, error_message = ?, finished_at = ? "
+                    + "WHERE id = ? AND status = 'RUNNING'";
+
+    private record Completion(String jobId, ScanVerdict verdict, String foundVirusesJson, String errorMessage,
+                              Instant at, Runnable afterWrite) {}
+
+    private final SettingsService settings;
+    private final ScanJobRepository jobRepo;
+    private final JdbcTemplate jdbc;
+    private final ConcurrentLinkedQueue<Completion> pending = new ConcurrentLinkedQueue<>();
+
+    private ScheduledExecutorService flusher;
+
+    public JobCompletionWriter(SettingsService settings, ScanJobRepository jobRepo, JdbcTemplate jdbc) {
+        this.settings = settings;
+        this.jobRepo = jobRepo;
+        this.jdbc = jdbc;
+    }
+
+    @PostConstruct
+    public void init() {
+        long batchMs = settings.jobCompletionBatchMs();
+        if (batchMs <= 0) return;
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "job-completion-writer");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flushSafely, batchMs, batchMs, TimeUnit.MILLISECONDS);
+        log.info("Job completions are written in batches every {} ms", batchMs);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (flusher == null) return;
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushSafely();
+    }
+
+    /**
+     * Move a RUNNING job to FINISHED. afterWrite (may be null) runs once the row is written.
+     */
+    public void finish(String jobId, ScanVerdict verdict, String foundVirusesJson, String errorMessage, Runnable afterWrite) {
+        Completion c = new Completion(jobId, verdict, foundVirusesJson, errorMessage, Instant.now(), afterWrite);
+        if (flusher == null) {
+            writeOne(c);
+            runAfterWrite(c);
+        } else {
+            pending.add(c);
+        }
+    }
+
+    private void flushSafely() {
+        try {
+            while (!pending.isEmpty()) flush();
+        } catch (Exception e) {
+            log.error("Job completion flush failed", e);
+        }
+    }
+
+    private void flush() {
+        List<Completion> batch = new ArrayList<>();
+        Completion c;
+        while (batch.size() < MAX_BATCH && (c = pending.poll()) != null) batch.add(c);
+        if (batch.isEmpty()) return;
+
+        try {
+            List<Object[]> args = new ArrayList<>(batch.size());
+            for (Completion b : batch) {
+                args.add(new Object[]{b.verdict().name(), b.foundVirusesJson(), b.errorMessage(),
+                        Timestamp.from(b.at()), b.jobId()});
+            }
+            int[] counts = jdbc.batchUpdate(FINISH_SQL, args);
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] == 0) log.debug("Job {} was not RUNNING; completion {} ignored", batch.get(i).jobId(), batch.get(i).verdict());
+            }
+        } catch (Exception e) {
+            log.warn("Batched write of {} job completions failed ({}), writing them one by one", batch.size(), e.getMessage());
+            batch.forEach(this::writeOne);
+        }
+        batch.forEach(this::runAfterWrite);
+    }
+
+    private void writeOne(Completion c) {
+        try {
+            if (jobRepo.finish(c.jobId(), c.verdict(), c.foundVirusesJson(), c.errorMessage(), c.at()) == 0) {
+                log.debug("Job {} was not RUNNING; completion {} ignored", c.jobId(), c.verdict());
+            }
+        } catch (Exception e) {
+            log.error("Job {} failed to persist {} state", c.jobId(), c.verdict(), e);
+        }
+    }
+
+    private void runAfterWrite(Completion c) {
+        if (c.afterWrite() == null) return;
+        try {
+            c.afterWrite().run();
+        } catch (Exception e) {
+            log.warn("Post-completion step for job {} failed: {}", c.jobId(), e.getMessage());
+        }
+    }
+}
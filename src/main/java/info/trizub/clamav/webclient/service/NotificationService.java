@@ -22,10 +22,17 @@ public class NotificationService {
         this.mapper = mapper;
     }
 
+    /**
+     * True when a webhook is configured, i.e. notifyIfNeeded() would send something.
+     */
+    public boolean enabled() {
+        String url = settings.webhookUrl();
+        return settings.webhookEnabled() && url != null && !url.isBlank();
+    }
+
     public void notifyIfNeeded(ScanJob job) {
-        if (!settings.webhookEnabled()) return;
+        if (!enabled()) return;
         String url = settings.webhookUrl();
-        if (url == null || url.isBlank()) return;
 
         try {
             Map<String, Object> payload = Map.of(
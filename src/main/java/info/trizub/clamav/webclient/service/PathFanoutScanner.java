@@ -0,0 +1,312 @@
+package info.trizub.clamav.webclient.service;
+
+import info.trizub.clamav.webclient.model.ClamdEndpoint;
+import info.trizub.clamav.webclient.model.ScanVerdict;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import xyz.capybara.clamav.commands.scan.result.ScanResult;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * PATH scans in app.pathScan.mode=fanout: instead of one opaque CONTSCAN/MULTISCAN for the whole
+ * tree, the app walks the tree itself and sends one SCAN per file, at most app.pathScan.parallelism
+ * at a time. clamd still reads the files, so it needs the same view of the path as before.
+ *
+ * Every SCAN in flight takes a permit from the endpoint slot the job runs under (the executor's
+ * per-endpoint bulkhead), so fan-out jobs and other jobs together stay within the endpoint's
+ * limit. The job's own permit covers one file; further files only borrow permits that are free
+ * right now and otherwise wait for the job's own, so fan-out jobs never wait on each other.
+ * BATCH jobs (an explicit file list from the watcher) go through the same machinery.
+ *
+ * - every file gets a scan_job_files row (written in JDBC batches); BATCH jobs keep only
+ *   detections and errors
+ * - progress (files, bytes, throughput) is kept in memory while the job runs
+ * - a connection failure aborts the job so it can fail over; per-file clamd errors do not
+ */
+@Service
+public class PathFanoutScanner {
+
+    private static final Logger log = LoggerFactory.getLogger(PathFanoutScanner.class);
+
+    private static final int BATCH_SIZE = 500;
+    private static final String INSERT_FILE =
+            "INSERT INTO scan_job_files (job_id, path, size_bytes, verdict, viruses, error_message, duration_ms, scanned_at) "
+                    + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final SettingsService settings;
+    private final ClamavClientProvider clientProvider;
+    private final JdbcTemplate jdbc;
+    private final Map<String, Progress> running = new ConcurrentHashMap<>();
+
+    /** clean lists the files found clean, for list scans only (a tree can be arbitrarily large). */
+    public record Outcome(Map<String, Collection<String>> found, long scanned, long failed, String firstError,
+                          Collection<String> clean) {}
+
+    public static final class Progress {
+        final long startedAtMs = System.currentTimeMillis();
+        final AtomicLong discovered = new AtomicLong();
+        final AtomicLong scanned = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        final AtomicLong infected = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        volatile boolean walkDone;
+
+        public Map<String, Object> toMap() {
+            long elapsedMs = Math.max(1, System.currentTimeMillis() - startedAtMs);
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("walking", !walkDone);
+            m.put("filesDiscovered", discovered.get());
+            m.put("filesScanned", scanned.get());
+            m.put("filesFailed", failed.get());
+            m.put("filesInfected", infected.get());
+            m.put("bytesScanned", bytes.get());
+            m.put("elapsedMs", elapsedMs);
+            m.put("filesPerSecond", Math.round(scanned.get() * 1000d / elapsedMs * 10) / 10d);
+            m.put("bytesPerSecond", bytes.get() * 1000 / elapsedMs);
+            return m;
+        }
+    }
+
+    public PathFanoutScanner(SettingsService settings, ClamavClientProvider clientProvider, JdbcTemplate jdbc) {
+        this.settings = settings;
+        this.clientProvider = clientProvider;
+        this.jdbc = jdbc;
+    }
+
+    /**
+     * Live progress of a running fan-out job, or null if it is not running on this instance.
+     */
+    public Progress progress(String jobId) {
+        return running.get(jobId);
+    }
+
+    /**
+     * slot is the endpoint semaphore the calling job holds one permit of.
+     */
+    public Outcome scan(String jobId, ClamdEndpoint ep, Semaphore slot, Path root) throws Exception {
+        return run(new Run(jobId, ep, slot, false), run -> Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (run.aborted()) return FileVisitResult.TERMINATE;
+                if (attrs.isRegularFile()) run.submit(file, attrs.size());
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                run.failed(file, exc);
+                return FileVisitResult.CONTINUE;
+            }
+        }));
+    }
+
+    /**
+     * Scan an explicit list of files (BATCH jobs). Only detections and errors are recorded per file.
+     */
+    public Outcome scanList(String jobId, ClamdEndpoint ep, Semaphore slot, List<Path> files) throws Exception {
+        return run(new Run(jobId, ep, slot, true), run -> {
+            for (Path file : files) {
+                if (run.aborted()) return;
+                long size;
+                try {
+                    size = Files.size(file);
+                } catch (IOException e) {
+                    run.failed(file, e);
+                    continue;
+                }
+                run.submit(file, size);
+            }
+        });
+    }
+
+    private interface Producer {
+        void produce(Run run) throws IOException;
+    }
+
+    private Outcome run(Run run, Producer producer) throws Exception {
+        String jobId = run.jobId;
+        running.put(jobId, run.progress);
+        // A job can run again (restart recovery, failover to another endpoint): start from a clean slate.
+        jdbc.update("DELETE FROM scan_job_files WHERE job_id = ?", jobId);
+
+        try {
+            try (ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()) {
+                run.workers = workers;
+                producer.produce(run);
+                run.progress.walkDone = true;
+            } // close() waits for the files still being scanned
+            flush(run.pending);
+        } finally {
+            saveCounters(jobId, run.progress);
+            running.remove(jobId);
+        }
+
+        if (run.abort.get() != null) throw run.abort.get();
+        return new Outcome(run.found, run.progress.scanned.get(), run.progress.failed.get(), run.firstError.get(),
+                run.clean == null ? List.of() : run.clean);
+    }
+
+    /** State of one running fan-out job. */
+    private final class Run {
+        final String jobId;
+        final ClamdEndpoint ep;
+        final boolean problemsOnly;
+        final Progress progress = new Progress();
+        final Map<String, Collection<String>> found = new ConcurrentHashMap<>();
+        final Queue<String> clean;
+        final AtomicReference<String> firstError = new AtomicReference<>();
+        final AtomicReference<Exception> abort = new AtomicReference<>();
+        final List<Object[]> pending = new ArrayList<>();
+        final Semaphore window = new Semaphore(Math.max(1, settings.pathScanParallelism()));
+        final Semaphore slot;
+        // The permit of slot the job already holds, lent to one file at a time.
+        final Semaphore own = new Semaphore(1);
+        ExecutorService workers;
+
+        Run(String jobId, ClamdEndpoint ep, Semaphore slot, boolean problemsOnly) {
+            this.jobId = jobId;
+            this.ep = ep;
+            this.slot = slot;
+            this.problemsOnly = problemsOnly;
+            this.clean = problemsOnly ? new ConcurrentLinkedQueue<>() : null;
+        }
+
+        boolean aborted() {
+            return abort.get() != null;
+        }
+
+        void submit(Path file, long size) throws InterruptedIOException {
+            progress.discovered.incrementAndGet();
+            Semaphore permit;
+            try {
+                window.acquire();
+                try {
+                    permit = acquirePermit();
+                } catch (InterruptedException e) {
+                    window.release();
+                    throw e;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Scan job " + jobId + " interrupted");
+            }
+            workers.submit(() -> {
+                try {
+                    scanOne(this, file, size);
+                } finally {
+                    permit.release();
+                    window.release();
+                }
+            });
+        }
+
+        private Semaphore acquirePermit() throws InterruptedException {
+            if (own.tryAcquire()) return own;
+            if (slot != null && slot.tryAcquire()) return slot;
+            own.acquire();
+            return own;
+        }
+
+        void failed(Path file, IOException exc) {
+            progress.failed.incrementAndGet();
+            firstError.compareAndSet(null, file + ": " + exc);
+            add(jobId, pending, row(jobId, file, null, ScanVerdict.ERROR, null, String.valueOf(exc), null));
+        }
+    }
+
+    private void scanOne(Run run, Path file, long size) {
+        if (run.aborted()) return;
+        String jobId = run.jobId;
+        Progress progress = run.progress;
+        long t0 = System.nanoTime();
+        try {
+            ScanResult result = clientProvider.scanFile(run.ep, file);
+            long ms = (System.nanoTime() - t0) / 1_000_000;
+            progress.scanned.incrementAndGet();
+            progress.bytes.addAndGet(size);
+            if (result instanceof ScanResult.VirusFound vf) {
+                progress.infected.incrementAndGet();
+                run.found.putAll(vf.getFoundViruses());
+                String names = vf.getFoundViruses().values().stream()
+                        .flatMap(Collection::stream).distinct().reduce((a, b) -> a + "," + b).orElse(null);
+                add(jobId, run.pending, row(jobId, file, size, ScanVerdict.VIRUS_FOUND, names, null, ms));
+            } else if (!run.problemsOnly) {
+                add(jobId, run.pending, row(jobId, file, size, ScanVerdict.OK, null, null, ms));
+            } else {
+                run.clean.add(file.toString());
+            }
+        } catch (Exception e) {
+            if (ScanExecutionService.isConnectionFailure(e)) {
+                run.abort.compareAndSet(null, e);
+                return;
+            }
+            long ms = (System.nanoTime() - t0) / 1_000_000;
+            progress.failed.incrementAndGet();
+            run.firstError.compareAndSet(null, file + ": " + e.getMessage());
+            add(jobId, run.pending, row(jobId, file, size, ScanVerdict.ERROR, null, e.getMessage(), ms));
+        }
+    }
+
+    private static Object[] row(String jobId, Path file, Long size, ScanVerdict verdict, String viruses, String error, Long ms) {
+        return new Object[]{jobId, truncate(file.toString(), 2048), size, verdict.name(), truncate(viruses, 1024),
+                error, ms, Timestamp.from(Instant.now())};
+    }
+
+    private void add(String jobId, List<Object[]> pending, Object[] row) {
+        List<Object[]> batch = null;
+        synchronized (pending) {
+            pending.add(row);
+            if (pending.size() >= BATCH_SIZE) {
+                batch = new ArrayList<>(pending);
+                pending.clear();
+            }
+        }
+        if (batch != null) write(jobId, batch);
+    }
+
+    private void flush(List<Object[]> pending) {
+        List<Object[]> batch;
+        synchronized (pending) {
+            batch = new ArrayList<>(pending);
+            pending.clear();
+        }
+        if (!batch.isEmpty()) write((String) batch.get(0)[0], batch);
+    }
+
+    private void write(String jobId, List<Object[]> batch) {
+        try {
+            jdbc.batchUpdate(INSERT_FILE, batch);
+        } catch (Exception e) {
+            // Per-file rows are informational; the job verdict does not depend on them.
+            log.warn("Job {}: failed to store {} per-file results: {}", jobId, batch.size(), e.getMessage());
+        }
+    }
+
+    private void saveCounters(String jobId, Progress progress) {
+        try {
+            jdbc.update("UPDATE scan_jobs SET files_scanned = ?, files_failed = ?, bytes_scanned = ? WHERE id = ?",
+                    progress.scanned.get(), progress.failed.get(), progress.bytes.get(), jobId);
+        } catch (Exception e) {
+            log.warn("Job {}: failed to store scan counters: {}", jobId, e.getMessage());
+        }
+    }
+
+    private static String truncate(String s, int max) {
+        return s == null || s.length() <= max ? s : s.substring(0, max);
+    }
+}
@@ -0,0 +1,193 @@
+package info.trizub.clamav.webclient.service;
+
+import info.trizub.clamav.webclient.db.DatabaseType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Set-based access to processed_files for the watcher: one SELECT per batch of walked paths and
+ * one JDBC batch upsert for the files that changed, instead of a lookup and a save per file.
+ * Rows also carry the file key (device + inode) and optionally the SHA-256, so a file that moved
+ * can be re-pointed to its new path instead of being scanned again.
+ *
+ * clean_version records the signature version a file was last found clean with. Upserts (the file
+ * changed and is queued again) reset it unless it was recorded after the file's mtime, i.e. the
+ * scan of the queued content already finished; so the watcher's upsert and markClean may run in
+ * either order. Rows clean under an older version are rescan candidates.
+ */
+@Service
+public class ProcessedFileStore {
+
+    /** Keeps IN lists well below driver parameter limits. */
+    public static final int BATCH_SIZE = 500;
+
+    private static final String UPSERT_POSTGRES =
+            "INSERT INTO processed_files (path, last_modified, size_bytes, file_key, sha256, processed_at) VALUES (?, ?, ?, ?, ?, ?) "
+                    + "ON CONFLICT (path) DO UPDATE SET last_modified = EXCLUDED.last_modified, size_bytes = EXCLUDED.size_bytes, "
+                    + "file_key = EXCLUDED.file_key, sha256 = EXCLUDED.sha256, "
+                    + "clean_version = CASE WHEN processed_files.clean_at >= ? THEN processed_files.clean_version END";
+    private static final String UPSERT_STANDARD =
+            "MERGE INTO processed_files t USING (VALUES (CAST(? AS VARCHAR(4096)), CAST(? AS BIGINT), CAST(? AS BIGINT), "
+                    + "CAST(? AS VARCHAR(256)), CAST(? AS VARCHAR(128)), CAST(? AS TIMESTAMP), CAST(? AS TIMESTAMP))) "
+                    + "AS s(path, last_modified, size_bytes, file_key, sha256, processed_at, modified_at) ON t.path = s.path "
+                    + "WHEN MATCHED THEN UPDATE SET last_modified = s.last_modified, size_bytes = s.size_bytes, "
+                    + "file_key = s.file_key, sha256 = s.sha256, "
+                    + "clean_version = CASE WHEN t.clean_at >= s.modified_at THEN t.clean_version END "
+                    + "WHEN NOT MATCHED THEN INSERT (path, last_modified, size_bytes, file_key, sha256, processed_at) "
+                    + "VALUES (s.path, s.last_modified, s.size_bytes, s.file_key, s.sha256, s.processed_at)";
+
+    private static final String MARK_CLEAN_POSTGRES =
+            "INSERT INTO processed_files (path, last_modified, size_bytes, clean_version, clean_at, processed_at) "
+                    + "VALUES (?, -1, -1, ?, ?, ?) "
+                    + "ON CONFLICT (path) DO UPDATE SET clean_version = EXCLUDED.clean_version, clean_at = EXCLUDED.clean_at";
+    private static final String MARK_CLEAN_STANDARD =
+            "MERGE INTO processed_files t USING (VALUES (CAST(? AS VARCHAR(4096)), CAST(? AS VARCHAR(64)), "
+                    + "CAST(? AS TIMESTAMP), CAST(? AS TIMESTAMP))) AS s(path, clean_version, clean_at, processed_at) "
+                    + "ON t.path = s.path "
+                    + "WHEN MATCHED THEN UPDATE SET clean_version = s.clean_version, clean_at = s.clean_at "
+                    + "WHEN NOT MATCHED THEN INSERT (path, last_modified, size_bytes, clean_version, clean_at, processed_at) "
+                    + "VALUES (s.path, -1, -1, s.clean_version, s.clean_at, s.processed_at)";
+
+    /**
+     * What the watcher knows about a file. fileKey and sha256 may be null (platform without file
+     * keys, hashing off); change detection only compares mtime and size (see sameAs).
+     */
+    public record FileState(String path, long lastModified, long sizeBytes, String fileKey, String sha256) {
+
+        public static FileState read(Path p) throws IOException {
+            BasicFileAttributes a = Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            Object key = a.fileKey();
+            return new FileState(p.toAbsolutePath().normalize().toString(), a.lastModifiedTime().toMillis(), a.size(),
+                    key == null ? null : key.toString(), null);
+        }
+
+        public boolean sameAs(FileState other) {
+            return other != null && lastModified == other.lastModified && sizeBytes == other.sizeBytes;
+        }
+
+        public FileState withSha256(String sha256) {
+            return new FileState(path, lastModified, sizeBytes, fileKey, sha256);
+        }
+    }
+
+    public record Move(String fromPath, String toPath) {}
+
+    private final DatabaseType database;
+    private final JdbcTemplate jdbc;
+
+    public ProcessedFileStore(DatabaseType database, JdbcTemplate jdbc) {
+        this.database = database;
+        this.jdbc = jdbc;
+    }
+
+    /**
+     * Known state of the given paths, keyed by path. Paths never processed are absent.
+     */
+    public Map<String, FileState> load(Collection<String> paths) {
+        Map<String, FileState> known = new HashMap<>();
+        List<String> all = new ArrayList<>(paths);
+        for (int from = 0; from < all.size(); from += BATCH_SIZE) {
+            List<String> chunk = all.subList(from, Math.min(all.size(), from + BATCH_SIZE));
+            String sql = "SELECT path, last_modified, size_bytes, file_key, sha256 FROM processed_files WHERE path IN ("
+                    + String.join(",", Collections.nCopies(chunk.size(), "?")) + ")";
+            jdbc.query(sql, rs -> {
+                known.put(rs.getString(1), new FileState(rs.getString(1), rs.getLong(2), rs.getLong(3), rs.getString(4), rs.getString(5)));
+            }, chunk.toArray());
+        }
+        return known;
+    }
+
+    /**
+     * Known files by file key. With several rows per key (hard links) any one of them is returned.
+     */
+    public Map<String, FileState> loadByFileKeys(Collection<String> fileKeys) {
+        Map<String, FileState> known = new HashMap<>();
+        List<String> all = new ArrayList<>(fileKeys);
+        for (int from = 0; from < all.size(); from += BATCH_SIZE) {
+            List<String> chunk = all.subList(from, Math.min(all.size(), from + BATCH_SIZE));
+            String sql = "SELECT path, last_modified, size_bytes, file_key, sha256 FROM processed_files WHERE file_key IN ("
+                    + String.join(",", Collections.nCopies(chunk.size(), "?")) + ")";
+            jdbc.query(sql, rs -> {
+                known.put(rs.getString(4), new FileState(rs.getString(1), rs.getLong(2), rs.getLong(3), rs.getString(4), rs.getString(5)));
+            }, chunk.toArray());
+        }
+        return known;
+    }
+
+    /**
+     * Move rows to new paths (dropping stale rows already at the target path).
+     */
+    public void repoint(List<Move> moves) {
+        if (moves.isEmpty()) return;
+        jdbc.batchUpdate("DELETE FROM processed_files WHERE path = ?",
+                moves.stream().map(m -> new Object[]{m.toPath()}).toList());
+        jdbc.batchUpdate("UPDATE processed_files SET path = ? WHERE path = ?",
+                moves.stream().map(m -> new Object[]{m.toPath(), m.fromPath()}).toList());
+    }
+
+    /**
+     * Record that the given paths were found clean with signature version, in JDBC batches.
+     * A scan can finish before the watcher has written the file's row; the row is then created
+     * with mtime and size -1, and the watcher's upsert fills them in and keeps the verdict.
+     */
+    public void markClean(Collection<String> paths, String version) {
+        if (paths.isEmpty()) return;
+        Timestamp now = Timestamp.from(Instant.now());
+        List<Object[]> args = new ArrayList<>(paths.size());
+        for (String path : paths) args.add(new Object[]{path, version, now, now});
+        String sql = database.isPostgres() ? MARK_CLEAN_POSTGRES : MARK_CLEAN_STANDARD;
+        for (int from = 0; from < args.size(); from += BATCH_SIZE) {
+            jdbc.batchUpdate(sql, args.subList(from, Math.min(args.size(), from + BATCH_SIZE)));
+        }
+    }
+
+    /**
+     * Forget the clean verdict of the given paths (their rescan is queued).
+     */
+    public void clearClean(Collection<String> paths) {
+        List<String> all = new ArrayList<>(paths);
+        for (int from = 0; from < all.size(); from += BATCH_SIZE) {
+            List<String> chunk = all.subList(from, Math.min(all.size(), from + BATCH_SIZE));
+            jdbc.update("UPDATE processed_files SET clean_version = NULL WHERE path IN ("
+                    + String.join(",", Collections.nCopies(chunk.size(), "?")) + ")", chunk.toArray());
+        }
+    }
+
+    /**
+     * Up to limit paths found clean with a signature version other than version, most recently
+     * modified first.
+     */
+    public List<String> cleanBefore(String version, int limit) {
+        return jdbc.queryForList("SELECT path FROM processed_files WHERE clean_version IS NOT NULL AND clean_version <> ? "
+                + "ORDER BY last_modified DESC LIMIT ?", String.class, version, limit);
+    }
+
+    public long countCleanBefore(String version) {
+        Long n = jdbc.queryForObject("SELECT COUNT(*) FROM processed_files WHERE clean_version IS NOT NULL AND clean_version <> ?",
+                Long.class, version);
+        return n == null ? 0 : n;
+    }
+
+    /**
+     * Insert or update the given rows in one JDBC batch.
+     */
+    public void upsert(List<FileState> rows) {
+        if (rows.isEmpty()) return;
+        Timestamp now = Timestamp.from(Instant.now());
+        List<Object[]> args = new ArrayList<>(rows.size());
+        for (FileState r : rows) {
+            args.add(new Object[]{r.path(), r.lastModified(), r.sizeBytes(), r.fileKey(), r.sha256(), now,
+                    new Timestamp(r.lastModified())});
+        }
+        jdbc.batchUpdate(database.isPostgres() ? UPSERT_POSTGRES : UPSERT_STANDARD, args);
+    }
+}
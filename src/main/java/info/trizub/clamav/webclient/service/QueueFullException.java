@@ -0,0 +1,21 @@
+package info.trizub.clamav.webclient.service;
+
+import info.trizub.clamav.webclient.model.JobPriority;
+
+/**
+ * Thrown when a scan cannot be accepted because its priority class of the job queue is full.
+ */
+public class QueueFullException extends RuntimeException {
+
+    private final JobPriority priority;
+    private final int retryAfterSeconds;
+
+    public QueueFullException(JobPriority priority, int retryAfterSeconds) {
+        super("Scan queue is full for " + priority + " jobs, retry in " + retryAfterSeconds + "s");
+        this.priority = priority;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public JobPriority getPriority() { return priority; }
+    public int getRetryAfterSeconds() { return retryAfterSeconds; }
+}
@@ -0,0 +1,383 @@
+package info.trizub.clamav.webclient.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import info.trizub.clamav.webclient.db.DatabaseType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.ColumnMapRowMapper;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.Clob;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Moves finished scan jobs (with their per-file rows) and audit events older than the configured
+ * age out of the database into archive segments under app.retention.archiveDir, in batches of
+ * app.retention.batchSize rows. Each batch becomes one gzip NDJSON segment; then, in one
+ * transaction, hourly rollup counts are added, job ids are indexed in archive_index and the rows
+ * are deleted. A crash between writing a segment and committing only means the rows are archived
+ * again into a new segment next time.
+ *
+ * On Postgres, when scan_jobs or audit_events is range-partitioned on its timestamp, partitions
+ * wholly older than the cutoff are dropped once archiving has emptied them, and monthly partitions
+ * for the current and next month are created unless the table has a DEFAULT partition.
+ */
+@Service
+public class RetentionService {
+
+    private static final Logger log = LoggerFactory.getLogger(RetentionService.class);
+
+    static final String JOBS = "scan_jobs";
+    static final String AUDIT = "audit_events";
+
+    /** A run stops after this long and continues on the next schedule. */
+    private static final long MAX_RUN_MS = 15 * 60 * 1000L;
+
+    private static final DateTimeFormatter DAY = DateTimeFormatter.ofPattern("yyyy-MM-dd").withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter STAMP = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter MONTH = DateTimeFormatter.ofPattern("yyyyMM").withZone(ZoneOffset.UTC);
+    private static final Pattern UPPER_BOUND = Pattern.compile("TO \\('([^']+)'\\)");
+
+    private static final String ROLLUP_POSTGRES =
+            "INSERT INTO hourly_rollups (source, hour_start, category, outcome, total) VALUES (?, ?, ?, ?, ?) "
+                    + "ON CONFLICT (source, hour_start, category, outcome) DO UPDATE SET total = hourly_rollups.total + EXCLUDED.total";
+    private static final String ROLLUP_STANDARD =
+            "MERGE INTO hourly_rollups t USING (VALUES (CAST(? AS VARCHAR(16)), CAST(? AS TIMESTAMP), CAST(? AS VARCHAR(64)), "
+                    + "CAST(? AS VARCHAR(64)), CAST(? AS BIGINT))) AS s(source, hour_start, category, outcome, total) "
+                    + "ON t.source = s.source AND t.hour_start = s.hour_start AND t.category = s.category AND t.outcome = s.outcome "
+                    + "WHEN MATCHED THEN UPDATE SET total = t.total + s.total "
+                    + "WHEN NOT MATCHED THEN INSERT (source, hour_start, category, outcome, total) "
+                    + "VALUES (s.source, s.hour_start, s.category, s.outcome, s.total)";
+
+    private record RollupKey(Instant hour, String category, String outcome) {}
+
+    private final SettingsService settings;
+    private final DatabaseType database;
+    private final JdbcTemplate jdbc;
+    private final ObjectMapper mapper;
+    private final TransactionTemplate tx;
+
+    private volatile Instant lastRunAt;
+    private volatile long lastJobsArchived;
+    private volatile long lastAuditArchived;
+    private volatile String lastError;
+
+    public RetentionService(SettingsService settings, DatabaseType database, JdbcTemplate jdbc,
+                            ObjectMapper mapper, PlatformTransactionManager txManager) {
+        this.settings = settings;
+        this.database = database;
+        this.jdbc = jdbc;
+        this.mapper = mapper;
+        this.tx = new TransactionTemplate(txManager);
+    }
+
+    @Scheduled(initialDelay = 5 * 60 * 1000L, fixedDelay = 60 * 60 * 1000L)
+    public synchronized void archiveDue() {
+        if (!settings.retentionEnabled()) return;
+        long deadline = System.currentTimeMillis() + MAX_RUN_MS;
+        Instant now = Instant.now();
+        long jobs = 0, audit = 0;
+        String error = null;
+        try {
+            if (settings.retentionJobsDays() > 0) {
+                Instant cutoff = now.minus(Duration.ofDays(settings.retentionJobsDays()));
+                jobs = archiveJobs(cutoff, deadline);
+                maintainPartitions(JOBS, cutoff);
+            }
+            if (settings.retentionAuditDays() > 0) {
+                Instant cutoff = now.minus(Duration.ofDays(settings.retentionAuditDays()));
+                audit = archiveAudit(cutoff, deadline);
+                maintainPartitions(AUDIT, cutoff);
+            }
+        } catch (Exception e) {
+            error = e.getMessage();
+            log.warn("Retention run failed: {}", e.getMessage());
+        }
+        lastRunAt = now;
+        lastJobsArchived = jobs;
+        lastAuditArchived = audit;
+        lastError = error;
+        if (jobs > 0 || audit > 0) log.info("Archived {} scan jobs and {} audit events", jobs, audit);
+    }
+
+    private long archiveJobs(Instant cutoff, long deadline) throws IOException {
+        int limit = Math.max(1, settings.retentionBatchSize());
+        long total = 0;
+        while (System.currentTimeMillis() < deadline) {
+            List<Map<String, Object>> rows = jdbc.queryForList(
+                    "SELECT * FROM scan_jobs WHERE status = ? AND submitted_at < ? ORDER BY submitted_at, id LIMIT ?",
+                    "FINISHED", Timestamp.from(cutoff), limit);
+            if (rows.isEmpty()) break;
+
+            List<String> ids = new ArrayList<>(rows.size());
+            Map<RollupKey, Long> rollups = new HashMap<>();
+            for (Map<String, Object> row : rows) {
+                ids.add((String) row.get("id"));
+                rollups.merge(new RollupKey(hourOf(row.get("submitted_at")), text(row.get("type")), text(row.get("verdict"))),
+                        1L, Long::sum);
+            }
+            String in = String.join(",", Collections.nCopies(ids.size(), "?"));
+
+            String segment = segmentName(JOBS, rows.get(0).get("submitted_at"));
+            try (ArchiveSegments.Writer w = new ArchiveSegments.Writer(settings.retentionArchiveDir().resolve(segment))) {
+                for (Map<String, Object> row : rows) w.write(line("job", row));
+                ColumnMapRowMapper files = new ColumnMapRowMapper();
+                jdbc.query("SELECT * FROM scan_job_files WHERE job_id IN (" + in + ") ORDER BY job_id, id", rs -> {
+                    try {
+                        w.write(line("file", files.mapRow(rs, 0)));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, ids.toArray());
+                w.commit();
+            }
+
+            Timestamp at = Timestamp.from(Instant.now());
+            tx.executeWithoutResult(s -> {
+                addRollups(JOBS, rollups);
+                jdbc.batchUpdate("INSERT INTO archive_index (job_id, source, segment, archived_at) VALUES (?, ?, ?, ?)",
+                        ids.stream().map(id -> new Object[]{id, JOBS, segment, at}).toList());
+                jdbc.update("DELETE FROM scan_job_files WHERE job_id IN (" + in + ")", ids.toArray());
+                jdbc.update("DELETE FROM scan_jobs WHERE id IN (" + in + ")", ids.toArray());
+            });
+            total += rows.size();
+            if (rows.size() < limit) break;
+        }
+        return total;
+    }
+
+    private long archiveAudit(Instant cutoff, long deadline) throws IOException {
+        int limit = Math.max(1, settings.retentionBatchSize());
+        long total = 0;
+        while (System.currentTimeMillis() < deadline) {
+            List<Map<String, Object>> rows = jdbc.queryForList(
+                    "SELECT * FROM audit_events WHERE at < ? ORDER BY at, id LIMIT ?", Timestamp.from(cutoff), limit);
+            if (rows.isEmpty()) break;
+
+            List<Object> ids = new ArrayList<>(rows.size());
+            Set<String> jobIds = new LinkedHashSet<>();
+            Map<RollupKey, Long> rollups = new HashMap<>();
+            for (Map<String, Object> row : rows) {
+                ids.add(row.get("id"));
+                if (row.get("job_id") != null) jobIds.add(row.get("job_id").toString());
+                rollups.merge(new RollupKey(hourOf(row.get("at")), text(row.get("action")), text(row.get("outcome"))),
+                        1L, Long::sum);
+            }
+
+            String segment = segmentName(AUDIT, rows.get(0).get("at"));
+            try (ArchiveSegments.Writer w = new ArchiveSegments.Writer(settings.retentionArchiveDir().resolve(segment))) {
+                for (Map<String, Object> row : rows) w.write(line("audit", row));
+                w.commit();
+            }
+
+            Timestamp at = Timestamp.from(Instant.now());
+            tx.executeWithoutResult(s -> {
+                addRollups(AUDIT, rollups);
+                jdbc.batchUpdate("INSERT INTO archive_index (job_id, source, segment, archived_at) VALUES (?, ?, ?, ?)",
+                        jobIds.stream().map(id -> new Object[]{id, AUDIT, segment, at}).toList());
+                jdbc.update("DELETE FROM audit_events WHERE id IN ("
+                        + String.join(",", Collections.nCopies(ids.size(), "?")) + ")", ids.toArray());
+            });
+            total += rows.size();
+            if (rows.size() < limit) break;
+        }
+        return total;
+    }
+
+    private void addRollups(String source, Map<RollupKey, Long> rollups) {
+        List<Object[]> args = new ArrayList<>(rollups.size());
+        rollups.forEach((k, n) -> args.add(new Object[]{source, Timestamp.from(k.hour()), k.category(), k.outcome(), n}));
+        jdbc.batchUpdate(database.isPostgres() ? ROLLUP_POSTGRES : ROLLUP_STANDARD, args);
+    }
+
+    /**
+     * Drop partitions of a range-partitioned Postgres table that end before the cutoff and hold no
+     * rows any more, and make sure this and next month have a partition (unless there is a DEFAULT one).
+     * Tables that are not partitioned are left alone.
+     */
+    private void maintainPartitions(String table, Instant cutoff) {
+        if (!database.isPostgres()) return;
+        List<Map<String, Object>> parts;
+        try {
+            parts = jdbc.queryForList(
+                    "SELECT c.relname AS name, pg_get_expr(c.relpartbound, c.oid) AS bound FROM pg_inherits i "
+                            + "JOIN pg_class c ON c.oid = i.inhrelid JOIN pg_class p ON p.oid = i.inhparent "
+                            + "JOIN pg_namespace n ON n.oid = p.relnamespace WHERE p.relname = ? AND n.nspname = current_schema()",
+                    table);
+        } catch (Exception e) {
+            log.debug("Unable to list partitions of {}: {}", table, e.getMessage());
+            return;
+        }
+        if (parts.isEmpty()) return;
+
+        boolean hasDefault = false;
+        for (Map<String, Object> part : parts) {
+            String name = (String) part.get("name");
+            String bound = String.valueOf(part.get("bound"));
+            if (bound.equalsIgnoreCase("DEFAULT")) {
+                hasDefault = true;
+                continue;
+            }
+            Matcher m = UPPER_BOUND.matcher(bound);
+            if (!m.find()) continue;
+            try {
+                Boolean expired = jdbc.queryForObject("SELECT CAST(? AS timestamptz) <= ?", Boolean.class,
+                        m.group(1), Timestamp.from(cutoff));
+                if (!Boolean.TRUE.equals(expired)) continue;
+                Boolean hasRows = jdbc.queryForObject("SELECT EXISTS (SELECT 1 FROM " + quote(name) + ")", Boolean.class);
+                if (Boolean.TRUE.equals(hasRows)) continue;
+                jdbc.execute("DROP TABLE " + quote(name));
+                log.info("Dropped archived partition {} of {}", name, table);
+            } catch (Exception e) {
+                log.warn("Could not drop partition {} of {}: {}", name, table, e.getMessage());
+            }
+        }
+        if (hasDefault) return;
+
+        ZonedDateTime month = ZonedDateTime.now(ZoneOffset.UTC).withDayOfMonth(1).truncatedTo(ChronoUnit.DAYS);
+        for (int i = 0; i < 2; i++, month = month.plusMonths(1)) {
+            String name = table + "_p" + MONTH.format(month);
+            try {
+                jdbc.execute("CREATE TABLE IF NOT EXISTS " + quote(name) + " PARTITION OF " + table
+                        + " FOR VALUES FROM ('" + month.toInstant() + "') TO ('" + month.plusMonths(1).toInstant() + "')");
+            } catch (Exception e) {
+                // Typically overlaps a partition laid out differently by the operator
+                log.debug("Could not create partition {}: {}", name, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The archived job with its per-file rows and archived audit events, or null if the job id was
+     * never archived.
+     */
+    public Map<String, Object> findArchivedJob(String jobId) throws IOException {
+        List<Map<String, Object>> entries = jdbc.queryForList(
+                "SELECT source, segment FROM archive_index WHERE job_id = ? ORDER BY id", jobId);
+        if (entries.isEmpty()) return null;
+
+        Map<String, Object> job = null;
+        List<Map<String, Object>> files = new ArrayList<>();
+        List<Map<String, Object>> audit = new ArrayList<>();
+        Set<String> read = new HashSet<>();
+        for (Map<String, Object> e : entries) {
+            String segment = (String) e.get("segment");
+            if (!read.add(segment)) continue;
+            List<Map<String, Object>> records = new ArrayList<>();
+            ArchiveSegments.read(settings.retentionArchiveDir().resolve(segment), l -> {
+                if (!l.contains(jobId)) return true;
+                try {
+                    Map<String, Object> r = mapper.readValue(l, Map.class);
+                    if (jobId.equals(r.get("id")) || jobId.equals(r.get("job_id"))) records.add(r);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+                return true;
+            });
+            for (Map<String, Object> r : records) {
+                Object kind = r.remove("record");
+                if ("job".equals(kind) && job == null) job = r;
+                else if ("file".equals(kind)) files.add(r);
+                else if ("audit".equals(kind)) audit.add(r);
+            }
+        }
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("job", job);
+        out.put("files", files);
+        out.put("audit", audit);
+        out.put("segments", read);
+        return out;
+    }
+
+    /**
+     * Hourly rollups of one source (scan_jobs / audit_events) within [from, to).
+     */
+    public List<Map<String, Object>> rollups(String source, Instant from, Instant to) {
+        return jdbc.queryForList(
+                "SELECT hour_start, category, outcome, total FROM hourly_rollups "
+                        + "WHERE source = ? AND hour_start >= ? AND hour_start < ? ORDER BY hour_start, category, outcome",
+                source, Timestamp.from(from), Timestamp.from(to)).stream().map(RetentionService::plain).toList();
+    }
+
+    public Map<String, Object> status() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("enabled", settings.retentionEnabled());
+        m.put("jobsDays", settings.retentionJobsDays());
+        m.put("auditDays", settings.retentionAuditDays());
+        m.put("archiveDir", settings.retentionArchiveDir().toString());
+        m.put("lastRunAt", lastRunAt);
+        m.put("lastJobsArchived", lastJobsArchived);
+        m.put("lastAuditArchived", lastAuditArchived);
+        m.put("lastError", lastError);
+        return m;
+    }
+
+    private String line(String record, Map<String, Object> row) throws IOException {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("record", record);
+        out.putAll(plain(row));
+        return mapper.writeValueAsString(out);
+    }
+
+    /** Lower-case column names; timestamps as ISO instants, CLOBs as strings. */
+    private static Map<String, Object> plain(Map<String, Object> row) {
+        Map<String, Object> out = new LinkedHashMap<>();
+        row.forEach((k, v) -> out.put(k.toLowerCase(Locale.ROOT), plainValue(v)));
+        return out;
+    }
+
+    private static Object plainValue(Object v) {
+        if (v == null || v instanceof String || v instanceof Number || v instanceof Boolean) return v;
+        Instant at = instantOf(v);
+        if (at != null) return at.toString();
+        if (v instanceof Clob c) {
+            try {
+                return c.getSubString(1, (int) c.length());
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return v.toString();
+    }
+
+    private static Instant instantOf(Object v) {
+        if (v instanceof Timestamp t) return t.toInstant();
+        if (v instanceof OffsetDateTime o) return o.toInstant();
+        if (v instanceof Instant i) return i;
+        if (v instanceof LocalDateTime l) return l.atZone(ZoneId.systemDefault()).toInstant();
+        return null;
+    }
+
+    private static Instant hourOf(Object v) {
+        Instant at = instantOf(v);
+        return (at != null ? at : Instant.EPOCH).truncatedTo(ChronoUnit.HOURS);
+    }
+
+    private static String text(Object v) {
+        return v == null ? "NONE" : v.toString();
+    }
+
+    /** e.g. scan_jobs/2025-01-31/scan_jobs-20250131T101500Z-1a2b3c4d.ndjson.gz, named after the first row. */
+    private static String segmentName(String source, Object firstAt) {
+        Instant at = Objects.requireNonNullElse(instantOf(firstAt), Instant.EPOCH);
+        return source + "/" + DAY.format(at) + "/" + source + "-" + STAMP.format(at) + "-"
+                + UUID.randomUUID().toString().substring(0, 8) + ".ndjson.gz";
+    }
+
+    private static String quote(String identifier) {
+        return "\"" + identifier.replace("\"", "\"\"") + "\"";
+    }
+}
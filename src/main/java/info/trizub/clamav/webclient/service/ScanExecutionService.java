@@ -1,26 +1,41 @@
 package info.trizub.clamav.webclient.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import info.trizub.clamav.webclient.model.ClamdEndpoint;
+import info.trizub.clamav.webclient.model.JobPriority;
 import info.trizub.clamav.webclient.model.ScanJob;
-import info.trizub.clamav.webclient.model.ScanJobStatus;
 import info.trizub.clamav.webclient.model.ScanJobType;
 import info.trizub.clamav.webclient.model.ScanVerdict;
 import info.trizub.clamav.webclient.repo.ScanJobRepository;
+import info.trizub.clamav.webclient.util.HashingTeeInputStream;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
-import xyz.capybara.clamav.ClamavClient;
+import xyz.capybara.clamav.CommunicationException;
 import xyz.capybara.clamav.commands.scan.result.ScanResult;
 
+import java.io.EOFException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.file.FileSystemException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Instant;
 import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.*;
 
 @Service
@@ -34,45 +49,238 @@ public class ScanExecutionService {
     private final ClamavClientProvider clientProvider;
     private final QuarantineService quarantineService;
     private final NotificationService notificationService;
+    private final VerdictCacheService verdictCache;
+    private final MeterRegistry meterRegistry;
+    private final EndpointRouter router;
+    private final PathFanoutScanner fanout;
+    private final JobCompletionWriter completions;
+    private final SignatureVersionService versions;
+    private final ProcessedFileStore processedFiles;
 
     private ExecutorService executor;
+    private ScanJobQueue queue;
+    private boolean virtualThreads;
+    private Semaphore inFlight;
+    private Thread dispatcher;
+    // Platform mode: worker slots, shared between pool threads and inline (streaming upload) scans.
+    private Semaphore slots;
+    // Virtual mode: per-endpoint bulkheads, so one slow clamd cannot take every slot.
+    private final Map<Long, Bulkhead> bulkheads = new ConcurrentHashMap<>();
+
+    private record Bulkhead(int limit, Semaphore permits) {}
 
     public ScanExecutionService(SettingsService settings,
                                ScanJobRepository jobRepo,
                                ObjectMapper mapper,
                                ClamavClientProvider clientProvider,
                                QuarantineService quarantineService,
-                               NotificationService notificationService) {
+                               NotificationService notificationService,
+                               VerdictCacheService verdictCache,
+                               MeterRegistry meterRegistry,
+                               EndpointRouter router,
+                               PathFanoutScanner fanout,
+                               JobCompletionWriter completions,
+                               SignatureVersionService versions,
+                               ProcessedFileStore processedFiles) {
         this.settings = settings;
         this.jobRepo = jobRepo;
         this.mapper = mapper;
         this.clientProvider = clientProvider;
         this.quarantineService = quarantineService;
         this.notificationService = notificationService;
+        this.verdictCache = verdictCache;
+        this.meterRegistry = meterRegistry;
+        this.router = router;
+        this.fanout = fanout;
+        this.completions = completions;
+        this.versions = versions;
+        this.processedFiles = processedFiles;
     }
 
     @PostConstruct
     public void init() {
         int threads = Math.max(1, settings.concurrentScans());
+        slots = new Semaphore(threads);
+        queue = new ScanJobQueue(settings.queueCapacity());
+        for (JobPriority p : JobPriority.values()) {
+            Gauge.builder("clamav.scan.queue.depth", queue, q -> q.depth(p))
+                    .tag("class", p.name().toLowerCase(Locale.ROOT))
+                    .register(meterRegistry);
+        }
+        virtualThreads = settings.virtualThreadExecutor();
+        if (virtualThreads) {
+            // Workers mostly block on clamd sockets; concurrency is bounded per endpoint, not by thread count.
+            // inFlight only keeps the backlog in the priority queue instead of in parked virtual threads.
+            executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("scan-vt-", 0).factory());
+            inFlight = new Semaphore(Math.max(1, settings.executorMaxInFlight()));
+            dispatcher = new Thread(this::dispatchVirtual, "scan-dispatcher");
+            dispatcher.setDaemon(false);
+            dispatcher.start();
+            log.info("Scan executor initialized with virtual threads (per-endpoint limit default {})", threads);
+            return;
+        }
         executor = new ThreadPoolExecutor(
                 threads, threads,
                 60L, TimeUnit.SECONDS,
                 new LinkedBlockingQueue<>(),
                 r -> {
                     Thread t = new Thread(r);
-                    t.setName("scan-worker-" + t.getId());
+                    t.setName("scan-worker-" + t.threadId());
                     // IMPORTANT: do NOT use daemon threads for the executor.
                     // Daemon threads may be terminated abruptly depending on runtime/container lifecycle.
                     t.setDaemon(false);
                     return t;
                 }
         );
+        for (int i = 0; i < threads; i++) {
+            executor.submit(this::workerLoop);
+        }
         log.info("Scan executor initialized with {} threads", threads);
     }
 
-    public void enqueue(String jobId) {
-        log.debug("Enqueue scan job {}", jobId);
-        executor.submit(() -> runJob(jobId));
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) executor.shutdownNow();
+        if (dispatcher != null) {
+            // Non-daemon and parked in queue.take(): it would keep the JVM alive.
+            dispatcher.interrupt();
+            try {
+                dispatcher.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void workerLoop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                runJob(queue.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                log.error("Scan worker error", e);
+            }
+        }
+    }
+
+    private void dispatchVirtual() {
+        while (!executor.isShutdown()) {
+            try {
+                inFlight.acquire();
+                String jobId = queue.take();
+                executor.submit(() -> {
+                    try {
+                        runJob(jobId);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            } catch (InterruptedException e) {
+                return;
+            } catch (RejectedExecutionException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Queue a persisted job, e.g. on recovery. Returns false if its priority class is full;
+     * the job then stays QUEUED in the database.
+     */
+    public boolean enqueue(String jobId, JobPriority priority) {
+        log.debug("Enqueue scan job {} ({})", jobId, priority);
+        return queue.offer(jobId, priority);
+    }
+
+    /**
+     * Reserve a place in the queue before creating a job, so callers can be turned away
+     * (HTTP 429) before any work is done. Must be followed by enqueueReserved() or cancelReservation().
+     */
+    public void reserve(JobPriority priority) {
+        if (!queue.reserve(priority)) {
+            throw new QueueFullException(priority, settings.queueRetryAfterSeconds());
+        }
+    }
+
+    public void enqueueReserved(String jobId, JobPriority priority) {
+        log.debug("Enqueue scan job {} ({})", jobId, priority);
+        queue.offerReserved(jobId, priority);
+    }
+
+    public void cancelReservation(JobPriority priority) {
+        queue.cancel(priority);
+    }
+
+    public boolean hasCapacity(JobPriority priority) {
+        return queue.remainingCapacity(priority) > 0;
+    }
+
+    public Map<JobPriority, Integer> queueDepths() {
+        Map<JobPriority, Integer> out = new EnumMap<>(JobPriority.class);
+        for (JobPriority p : JobPriority.values()) out.put(p, queue.depth(p));
+        return out;
+    }
+
+    /**
+     * Borrow a worker slot for this endpoint to scan on the caller's thread (streaming uploads).
+     * Returns the semaphore to release() the slot into when done, or null when all slots are busy;
+     * the caller should then store the file and enqueue() instead.
+     */
+    public Semaphore tryAcquireSlot(ClamdEndpoint endpoint) {
+        Semaphore slot = slotFor(endpoint);
+        return slot.tryAcquire() ? slot : null;
+    }
+
+    /**
+     * In-flight scans per endpoint id (virtual mode only; platform mode has one shared pool).
+     */
+    public Map<Long, Integer> endpointInFlight() {
+        Map<Long, Integer> out = new HashMap<>();
+        bulkheads.forEach((id, b) -> out.put(id, b.limit() - b.permits().availablePermits()));
+        return out;
+    }
+
+    private Semaphore slotFor(ClamdEndpoint endpoint) {
+        if (!virtualThreads || endpoint == null || endpoint.getId() == null) return slots;
+        int limit = Math.max(1, endpoint.getMaxConcurrency() != null ? endpoint.getMaxConcurrency() : settings.concurrentScans());
+        // Re-created when the endpoint's limit changes; holders of the old permits must release into
+        // the semaphore they acquired from, never into a freshly resolved one.
+        return bulkheads.compute(endpoint.getId(), (id, b) -> b != null && b.limit() == limit ? b : new Bulkhead(limit, new Semaphore(limit, true)))
+                .permits();
+    }
+
+    /**
+     * Stream content straight into clamd INSTREAM. The caller must hold a slot from tryAcquireSlot().
+     */
+    public ScanResult scanStream(ClamdEndpoint endpoint, InputStream in) {
+        long t0 = System.nanoTime();
+        router.begin(endpoint);
+        try {
+            ScanResult result = clientProvider.scan(endpoint, in);
+            router.success(endpoint, (System.nanoTime() - t0) / 1_000_000);
+            return result;
+        } catch (RuntimeException e) {
+            if (isConnectionFailure(e)) router.connectionFailure(endpoint);
+            throw e;
+        } finally {
+            router.end(endpoint);
+        }
+    }
+
+    /**
+     * Endpoint the router would currently pick for a pool job, or null if none is enabled.
+     */
+    public ClamdEndpoint routeEndpoint() {
+        return router.choose(Set.of());
+    }
+
+    /**
+     * Persist the outcome of an inline scan for an UPLOAD job that is already stored as RUNNING.
+     */
+    public void completeInline(String jobId, ScanResult result, Path stored) {
+        handleResult(jobId, ScanJobType.UPLOAD, result, stored);
+        log.debug("Job {} completed inline", jobId);
     }
 
     private void runJob(String jobId) {
@@ -82,45 +290,184 @@ public class ScanExecutionService {
             return;
         }
 
+        if (job.isPooled()) {
+            runPooled(job);
+            return;
+        }
+
+        Semaphore slot = slotFor(job.getEndpoint());
+        slot.acquireUninterruptibly();
+        try {
+            execute(job, slot);
+        } finally {
+            slot.release();
+        }
+    }
+
+    private void execute(ScanJob job, Semaphore slot) {
+        String jobId = job.getId();
         log.debug("Starting scan job {} type={} endpoint={}", jobId, job.getType(),
                 job.getEndpoint() != null ? job.getEndpoint().getName() : "null");
 
         try {
-            markRunning(jobId);
-            log.debug("Job {} marked RUNNING", jobId);
+            if (!markRunning(jobId)) return;
+            scanTracked(job, job.getEndpoint(), slot);
+        } catch (Exception e) {
+            failJob(jobId, e);
+        }
+    }
 
-            ClamavClient client = clientProvider.clientFor(job.getEndpoint());
+    /**
+     * Pool routing target: pick an endpoint at run time and move on to the next one when
+     * clamd cannot be reached. Scan verdicts and clamd-side errors are not retried.
+     */
+    private void runPooled(ScanJob job) {
+        String jobId = job.getId();
+        Set<Long> tried = new HashSet<>();
+        try {
+            if (!markRunning(jobId)) return;
+        } catch (Exception e) {
+            failJob(jobId, e);
+            return;
+        }
+        while (true) {
+            ClamdEndpoint ep = router.choose(tried);
+            if (ep == null) {
+                failJob(jobId, new IllegalStateException("No enabled clamd endpoint could be reached"));
+                return;
+            }
+            tried.add(ep.getId());
+            log.debug("Pooled job {} routed to endpoint {}", jobId, ep.getName());
 
-            if (job.getType() == ScanJobType.UPLOAD) {
-                Path stored = Paths.get(job.getStoredPath());
-                try (InputStream in = Files.newInputStream(stored)) {
-                    ScanResult result = client.scan(in);
-                    handleResult(jobId, job.getType(), result, stored);
+            Semaphore slot = slotFor(ep);
+            slot.acquireUninterruptibly();
+            try {
+                assignEndpoint(jobId, ep);
+                scanTracked(job, ep, slot);
+                return;
+            } catch (Exception e) {
+                if (!isConnectionFailure(e)) {
+                    failJob(jobId, e);
+                    return;
                 }
-            } else if (job.getType() == ScanJobType.PATH || job.getType() == ScanJobType.WATCH) {
-                Path target = Paths.get(job.getTarget());
-                ScanResult result = client.parallelScan(target);
-                handleResult(jobId, job.getType(), result, null);
-            } else {
-                finishError(jobId, "Unsupported job type: " + job.getType());
-                log.debug("Job {} finished ERROR (unsupported type)", jobId);
+                log.warn("Job {}: endpoint {} unreachable ({}), trying another", jobId, ep.getName(), e.getMessage());
+            } finally {
+                slot.release();
             }
+        }
+    }
+
+    /**
+     * Run the scan against ep and report outstanding count, latency and connection failures to the router.
+     * slot is the endpoint slot the job holds; fan-out scans borrow further permits from it.
+     */
+    private void scanTracked(ScanJob job, ClamdEndpoint ep, Semaphore slot) throws Exception {
+        long t0 = System.nanoTime();
+        router.begin(ep);
+        try {
+            scan(job, ep, slot);
+            router.success(ep, (System.nanoTime() - t0) / 1_000_000);
+        } catch (Exception e) {
+            if (isConnectionFailure(e)) router.connectionFailure(ep);
+            throw e;
+        } finally {
+            router.end(ep);
+        }
+    }
 
-            // Re-read to report final persisted state
-            ScanJob finished = jobRepo.findById(jobId).orElse(null);
-            if (finished != null) {
-                log.debug("Finished scan job {} status={} verdict={}", jobId, finished.getStatus(), finished.getVerdict());
+    private void scan(ScanJob job, ClamdEndpoint ep, Semaphore slot) throws Exception {
+        String jobId = job.getId();
+        if (job.getType() == ScanJobType.UPLOAD) {
+            Path stored = Paths.get(job.getStoredPath());
+            ScanResult result = verdictCache.scanOnce(job.getSha256(), ep, () -> {
+                try (InputStream in = Files.newInputStream(stored)) {
+                    return clientProvider.scan(ep, in);
+                }
+            });
+            handleResult(jobId, job.getType(), result, stored);
+        } else if (job.getType() == ScanJobType.PATH && settings.pathScanFanout()) {
+            scanFanout(job, ep, slot);
+        } else if (job.getType() == ScanJobType.BATCH) {
+            scanBatch(job, ep, slot);
+        } else if (job.getType() == ScanJobType.PATH || job.getType() == ScanJobType.WATCH) {
+            Path target = Paths.get(job.getTarget());
+            ScanResult result = clientProvider.clientFor(ep).parallelScan(target);
+            handleResult(jobId, job.getType(), result, null);
+            if (job.getType() == ScanJobType.WATCH && result instanceof ScanResult.OK) {
+                recordClean(List.of(job.getTarget()), ep);
             }
+        } else {
+            finishError(jobId, "Unsupported job type: " + job.getType());
+            log.debug("Job {} finished ERROR (unsupported type)", jobId);
+        }
+    }
+
+    private void scanFanout(ScanJob job, ClamdEndpoint ep, Semaphore slot) throws Exception {
+        finishFanout(job, fanout.scan(job.getId(), ep, slot, Paths.get(job.getTarget())));
+    }
+
+    private void scanBatch(ScanJob job, ClamdEndpoint ep, Semaphore slot) throws Exception {
+        Path list = Paths.get(job.getStoredPath());
+        List<Path> files = Files.readAllLines(list).stream().filter(l -> !l.isBlank()).map(Paths::get).toList();
+        PathFanoutScanner.Outcome outcome = fanout.scanList(job.getId(), ep, slot, files);
+        finishFanout(job, outcome);
+        recordClean(outcome.clean(), ep);
+        // Kept until here so a retry (failover, restart recovery) can read it again.
+        try {
+            Files.deleteIfExists(list);
+        } catch (IOException e) {
+            log.debug("Job {}: could not delete file list {}: {}", job.getId(), list, e.getMessage());
+        }
+    }
+
+    private void finishFanout(ScanJob job, PathFanoutScanner.Outcome outcome) {
+        String jobId = job.getId();
+        if (!outcome.found().isEmpty()) {
+            handleResult(jobId, job.getType(), new ScanResult.VirusFound(outcome.found()), null);
+        } else if (outcome.failed() > 0) {
+            finishError(jobId, outcome.failed() + " of " + (outcome.scanned() + outcome.failed())
+                    + " files could not be scanned; first error: " + outcome.firstError());
+        } else {
+            handleResult(jobId, job.getType(), ScanResult.OK.INSTANCE, null);
+        }
+    }
+
+    /**
+     * Remember the signature version watched files were found clean with (see SignatureRescanService).
+     */
+    private void recordClean(Collection<String> paths, ClamdEndpoint ep) {
+        if (paths.isEmpty()) return;
+        try {
+            String version = versions.current(ep);
+            if (version != null) processedFiles.markClean(paths, version);
         } catch (Exception e) {
-            log.error("Job {} failed", jobId, e);
-            try {
-                finishError(jobId, e.getMessage());
-            log.debug("Job {} finished ERROR: {}", jobId, e.getMessage());
-            } catch (Exception inner) {
-                log.error("Job {} failed to persist ERROR state", jobId, inner);
+            log.warn("Failed to record {} clean files: {}", paths.size(), e.getMessage());
+        }
+    }
+
+    private void failJob(String jobId, Exception e) {
+        log.error("Job {} failed", jobId, e);
+        finishError(jobId, e.getMessage());
+        log.debug("Job {} finished ERROR: {}", jobId, e.getMessage());
+    }
+
+    /**
+     * True when clamd could not be reached or the connection broke, as opposed to clamd answering
+     * with an error. Local problems (a missing stored upload or batch list, an oversized upload, no
+     * free pooled connection) are not connection failures and must not put the endpoint in cooldown.
+     */
+    static boolean isConnectionFailure(Throwable e) {
+        boolean network = false;
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof FileSystemException || t instanceof HashingTeeInputStream.LimitExceededException) return false;
+            // SocketException covers ConnectException; EOFException is clamd closing the session
+            if (t instanceof CommunicationException || t instanceof SocketException
+                    || t instanceof SocketTimeoutException || t instanceof EOFException) {
+                network = true;
             }
-            notifyIfNeeded(jobId);
+            if (t.getCause() == t) break;
         }
+        return network;
     }
 
     @SuppressWarnings("unchecked")
@@ -149,66 +496,55 @@ public class ScanExecutionService {
 
             finishFound(jobId, found);
             log.debug("Job {} finished VIRUS_FOUND", jobId);
-            notifyIfNeeded(jobId);
         } else {
             finishError(jobId, "Unknown scan result type: " + result);
             log.debug("Job {} finished ERROR (unknown result)", jobId);
-            notifyIfNeeded(jobId);
         }
     }
 
     private void notifyIfNeeded(String jobId) {
+        if (!notificationService.enabled()) return;
         try {
             notificationService.notifyIfNeeded(jobRepo.findById(jobId).orElseThrow());
         } catch (Exception ignored) {
         }
     }
 
-    @Transactional
-    public void markRunning(String id) {
-        ScanJob job = jobRepo.findById(id).orElseThrow();
-        job.setStatus(ScanJobStatus.RUNNING);
-        job.setStartedAt(Instant.now());
-        jobRepo.save(job);
+    /**
+     * QUEUED -> RUNNING. False if the job is no longer queued (finished, or already picked up).
+     */
+    private boolean markRunning(String id) {
+        if (jobRepo.markRunning(id, Instant.now()) == 0) {
+            log.debug("Job {} is not QUEUED; skipping", id);
+            return false;
+        }
+        log.debug("Job {} marked RUNNING", id);
+        return true;
     }
 
-    @Transactional
-    public void finishOk(String id) {
-        ScanJob job = jobRepo.findById(id).orElseThrow();
-        job.setStatus(ScanJobStatus.FINISHED);
-        job.setVerdict(ScanVerdict.OK);
-        job.setFinishedAt(Instant.now());
-        jobRepo.save(job);
+    private void finishOk(String id) {
+        completions.finish(id, ScanVerdict.OK, null, null, null);
     }
 
-    @Transactional
-    public void finishFound(String id, Object foundViruses) {
-        ScanJob job = jobRepo.findById(id).orElseThrow();
-        job.setStatus(ScanJobStatus.FINISHED);
-        job.setVerdict(ScanVerdict.VIRUS_FOUND);
+    private void finishFound(String id, Object foundViruses) {
+        String json;
         try {
-            job.setFoundVirusesJson(mapper.writeValueAsString(foundViruses));
+            json = mapper.writeValueAsString(foundViruses);
         } catch (Exception e) {
-            job.setFoundVirusesJson(String.valueOf(foundViruses));
+            json = String.valueOf(foundViruses);
         }
-        job.setFinishedAt(Instant.now());
-        jobRepo.save(job);
+        completions.finish(id, ScanVerdict.VIRUS_FOUND, json, null, () -> notifyIfNeeded(id));
+    }
+
+    private void finishError(String id, String message) {
+        completions.finish(id, ScanVerdict.ERROR, null, message, () -> notifyIfNeeded(id));
     }
 
-    @Transactional
-    public void finishError(String id, String message) {
-        ScanJob job = jobRepo.findById(id).orElseThrow();
-        job.setStatus(ScanJobStatus.FINISHED);
-        job.setVerdict(ScanVerdict.ERROR);
-        job.setErrorMessage(message);
-        job.setFinishedAt(Instant.now());
-        jobRepo.save(job);
+    private void assignEndpoint(String id, ClamdEndpoint endpoint) {
+        jobRepo.assignEndpoint(id, endpoint);
     }
 
-    @Transactional
-    public void setQuarantinePath(String id, String quarantinePath) {
-        ScanJob job = jobRepo.findById(id).orElseThrow();
-        job.setQuarantinePath(quarantinePath);
-        jobRepo.save(job);
+    private void setQuarantinePath(String id, String quarantinePath) {
+        jobRepo.setQuarantinePath(id, quarantinePath);
     }
 }
@@ -0,0 +1,113 @@
+package info.trizub.clamav.webclient.service;
+
+import info.trizub.clamav.webclient.model.JobPriority;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded job queue with one FIFO lane per JobPriority. take() always serves the highest
+ * non-empty lane, so interactive uploads never wait behind a watcher sweep.
+ *
+ * Producers that must fail early (before doing expensive work or committing a job row) first
+ * reserve() a place and later either offerReserved() or cancel() it.
+ */
+class ScanJobQueue {
+
+    private final int capacityPerClass;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Map<JobPriority, ArrayDeque<String>> lanes = new EnumMap<>(JobPriority.class);
+    private final Map<JobPriority, Integer> reserved = new EnumMap<>(JobPriority.class);
+
+    ScanJobQueue(int capacityPerClass) {
+        this.capacityPerClass = Math.max(1, capacityPerClass);
+        for (JobPriority p : JobPriority.values()) {
+            lanes.put(p, new ArrayDeque<>());
+            reserved.put(p, 0);
+        }
+    }
+
+    boolean reserve(JobPriority p) {
+        lock.lock();
+        try {
+            if (used(p) >= capacityPerClass) return false;
+            reserved.merge(p, 1, Integer::sum);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void cancel(JobPriority p) {
+        lock.lock();
+        try {
+            reserved.merge(p, -1, (a, b) -> Math.max(0, a + b));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void offerReserved(String jobId, JobPriority p) {
+        lock.lock();
+        try {
+            reserved.merge(p, -1, (a, b) -> Math.max(0, a + b));
+            lanes.get(p).addLast(jobId);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean offer(String jobId, JobPriority p) {
+        lock.lock();
+        try {
+            if (used(p) >= capacityPerClass) return false;
+            lanes.get(p).addLast(jobId);
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    String take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                for (JobPriority p : JobPriority.values()) {
+                    String id = lanes.get(p).pollFirst();
+                    if (id != null) return id;
+                }
+                notEmpty.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int depth(JobPriority p) {
+        lock.lock();
+        try {
+            return lanes.get(p).size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int remainingCapacity(JobPriority p) {
+        lock.lock();
+        try {
+            return capacityPerClass - used(p);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int used(JobPriority p) {
+        return lanes.get(p).size() + reserved.get(p);
+    }
+}
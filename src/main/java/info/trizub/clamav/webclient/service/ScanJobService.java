@@ -2,21 +2,38 @@ package info.trizub.clamav.webclient.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import info.trizub.clamav.webclient.model.*;
+import info.trizub.clamav.webclient.repo.ScanJobFileRepository;
 import info.trizub.clamav.webclient.repo.ScanJobRepository;
+import info.trizub.clamav.webclient.util.HashingTeeInputStream;
 import info.trizub.clamav.webclient.util.PathPolicy;
-import jakarta.annotation.PostConstruct;
+import jakarta.persistence.criteria.Predicate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.support.TransactionSynchronization;
 import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
+import xyz.capybara.clamav.commands.scan.result.ScanResult;
 
+import java.io.BufferedOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.Semaphore;
 
 @Service
 public class ScanJobService {
@@ -27,30 +44,139 @@ public class ScanJobService {
     private final SettingsService settings;
     private final ObjectMapper mapper;
     private final ScanExecutionService executor;
+    private final VerdictCacheService verdictCache;
+    private final PathFanoutScanner fanout;
+    private final ScanJobFileRepository fileRepo;
+    private final TransactionTemplate newTransaction;
+    private final Instant bootAt = Instant.now();
 
-    public ScanJobService(ScanJobRepository repo, SettingsService settings, ObjectMapper mapper, ScanExecutionService executor) {
+    private static final int RECOVERY_PAGE = 500;
+
+    public ScanJobService(ScanJobRepository repo, SettingsService settings, ObjectMapper mapper,
+                          ScanExecutionService executor, VerdictCacheService verdictCache,
+                          PathFanoutScanner fanout, ScanJobFileRepository fileRepo,
+                          PlatformTransactionManager txManager) {
         this.repo = repo;
         this.settings = settings;
         this.mapper = mapper;
         this.executor = executor;
+        this.verdictCache = verdictCache;
+        this.fanout = fanout;
+        this.fileRepo = fileRepo;
+        this.newTransaction = new TransactionTemplate(txManager);
+        this.newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
     }
 
-    @PostConstruct
+    /**
+     * Re-enqueue jobs left unfinished by a previous run, once the app is ready: RUNNING jobs are
+     * reset to QUEUED with one UPDATE, then QUEUED jobs are read in pages, oldest first, and handed
+     * to the executor at app.recovery.jobsPerSecond on a background thread. When the queue is full,
+     * recovery waits for room instead of leaving jobs behind. Jobs submitted after startup are
+     * enqueued by whoever created them and are not touched.
+     */
+    @EventListener(ApplicationReadyEvent.class)
     public void resumeQueued() {
-        // If app restarts, re-enqueue queued/running jobs as queued
-        repo.findAll().stream()
-                .filter(j -> j.getStatus() != ScanJobStatus.FINISHED)
-                .forEach(j -> {
-                    j.setStatus(ScanJobStatus.QUEUED);
-                    repo.save(j);
-                    executor.enqueue(j.getId());
-                });
+        Thread t = new Thread(this::recover, "job-recovery");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void recover() {
+        try {
+            int reset = repo.requeueRunning(bootAt);
+            long pauseNanos = 1_000_000_000L / Math.max(1, settings.recoveryJobsPerSecond());
+            long recovered = 0;
+            List<ScanJobRepository.QueuedJob> page = repo.findQueued(bootAt, Limit.of(RECOVERY_PAGE));
+            while (!page.isEmpty()) {
+                for (ScanJobRepository.QueuedJob j : page) {
+                    while (!executor.enqueue(j.getId(), priorityOf(j.getPriority()))) {
+                        log.debug("Scan queue full during recovery; waiting");
+                        Thread.sleep(Math.max(1, settings.queueRetryAfterSeconds()) * 1000L);
+                    }
+                    recovered++;
+                    Thread.sleep(pauseNanos / 1_000_000, (int) (pauseNanos % 1_000_000));
+                }
+                if (page.size() < RECOVERY_PAGE) break;
+                ScanJobRepository.QueuedJob last = page.get(page.size() - 1);
+                page = repo.findQueuedAfter(bootAt, last.getSubmittedAt(), last.getId(), Limit.of(RECOVERY_PAGE));
+            }
+            if (recovered > 0 || reset > 0) {
+                log.info("Recovered {} unfinished jobs ({} were RUNNING)", recovered, reset);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("Job recovery failed; unfinished jobs stay QUEUED until the next start", e);
+        }
     }
 
     public List<ScanJob> latest() {
         return repo.findTop200ByOrderBySubmittedAtDesc();
     }
 
+    /** Optional job list filters; null fields match everything. from is inclusive, to exclusive. */
+    public record JobFilter(ScanJobStatus status, ScanVerdict verdict, Long endpointId, String user,
+                            Instant from, Instant to) {}
+
+    /** One page of jobs, newest first; nextCursor is null on the last page. */
+    public record JobPage(List<ScanJob> jobs, String nextCursor) {}
+
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    /**
+     * Jobs newest first, paged by keyset on (submittedAt, id): each page continues strictly after
+     * the last row of the previous one, so a page costs the same however deep the listing goes.
+     *
+     * @param cursor opaque value from a previous page's nextCursor, or null for the first page
+     * @throws IllegalArgumentException if the cursor is not one this method produced
+     */
+    public JobPage page(JobFilter filter, String cursor, int limit) {
+        int size = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        Specification<ScanJob> spec = filterSpec(filter);
+        if (cursor != null && !cursor.isBlank()) spec = spec.and(after(cursor));
+        List<ScanJob> rows = repo.findBy(spec, q -> q
+                .sortBy(Sort.by(Sort.Order.desc("submittedAt"), Sort.Order.desc("id")))
+                .limit(size + 1)
+                .all());
+        if (rows.size() <= size) return new JobPage(rows, null);
+        List<ScanJob> page = rows.subList(0, size);
+        ScanJob last = page.get(size - 1);
+        String next = Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((last.getSubmittedAt() + "|" + last.getId()).getBytes(StandardCharsets.UTF_8));
+        return new JobPage(new ArrayList<>(page), next);
+    }
+
+    private static Specification<ScanJob> filterSpec(JobFilter f) {
+        return (root, query, cb) -> {
+            List<Predicate> where = new ArrayList<>();
+            // Rows without submittedAt cannot be ordered by keyset
+            where.add(cb.isNotNull(root.get("submittedAt")));
+            if (f.status() != null) where.add(cb.equal(root.get("status"), f.status()));
+            if (f.verdict() != null) where.add(cb.equal(root.get("verdict"), f.verdict()));
+            if (f.endpointId() != null) where.add(cb.equal(root.get("endpoint").get("id"), f.endpointId()));
+            if (f.user() != null && !f.user().isBlank()) where.add(cb.equal(root.get("submittedBy"), f.user()));
+            if (f.from() != null) where.add(cb.greaterThanOrEqualTo(root.get("submittedAt"), f.from()));
+            if (f.to() != null) where.add(cb.lessThan(root.get("submittedAt"), f.to()));
+            return cb.and(where.toArray(Predicate[]::new));
+        };
+    }
+
+    private static Specification<ScanJob> after(String cursor) {
+        Instant at;
+        String id;
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int bar = raw.indexOf('|');
+            at = Instant.parse(raw.substring(0, bar));
+            id = raw.substring(bar + 1);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        return (root, query, cb) -> cb.or(
+                cb.lessThan(root.get("submittedAt"), at),
+                cb.and(cb.equal(root.get("submittedAt"), at), cb.lessThan(root.get("id"), id)));
+    }
+
     /**
      * Fetch a job by id.
      *
@@ -61,150 +187,291 @@ public class ScanJobService {
         return repo.findById(id).orElse(null);
     }
 
+    /**
+     * Files scanned, bytes done and throughput of a job: live while a fan-out PATH job runs,
+     * otherwise the counters stored on the job. Null if the job does not exist.
+     */
+    public Map<String, Object> progress(String id) {
+        ScanJob job = getOrNull(id);
+        if (job == null) return null;
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("jobId", job.getId());
+        m.put("status", job.getStatus());
+        PathFanoutScanner.Progress live = fanout.progress(id);
+        if (live != null) {
+            m.putAll(live.toMap());
+            return m;
+        }
+        m.put("filesScanned", job.getFilesScanned());
+        m.put("filesFailed", job.getFilesFailed());
+        m.put("bytesScanned", job.getBytesScanned());
+        if (job.getStartedAt() != null && job.getFinishedAt() != null) {
+            long elapsedMs = Math.max(1, job.getFinishedAt().toEpochMilli() - job.getStartedAt().toEpochMilli());
+            m.put("elapsedMs", elapsedMs);
+            if (job.getFilesScanned() != null) {
+                m.put("filesPerSecond", Math.round(job.getFilesScanned() * 1000d / elapsedMs * 10) / 10d);
+                m.put("bytesPerSecond", job.getBytesScanned() * 1000 / elapsedMs);
+            }
+        }
+        return m;
+    }
+
+    /**
+     * Per-file results of a fan-out PATH job, 1000 at a time after the given row id.
+     */
+    public List<ScanJobFile> files(String id, long afterId, boolean problemsOnly) {
+        return problemsOnly
+                ? fileRepo.findTop1000ByJobIdAndVerdictNotAndIdGreaterThanOrderByIdAsc(id, ScanVerdict.OK, afterId)
+                : fileRepo.findTop1000ByJobIdAndIdGreaterThanOrderByIdAsc(id, afterId);
+    }
+
     @Transactional
-    public List<ScanJob> createUploadJobs(List<MultipartFile> files, ClamdEndpoint endpoint, String username) {
+    public List<ScanJob> createUploadJobs(List<MultipartFile> files, ClamdEndpoint endpoint, String username, JobPriority priority) {
         List<ScanJob> jobs = new ArrayList<>();
         for (MultipartFile f : files) {
             if (f == null || f.isEmpty()) continue;
             if (f.getSize() > settings.uploadMaxBytes()) {
                 throw new IllegalArgumentException("File too large: " + f.getOriginalFilename());
             }
-            String id = UUID.randomUUID().toString().replace("-", "");
-            Path uploadDir = settings.uploadDir();
-            try {
-                Files.createDirectories(uploadDir);
-                String safeName = (f.getOriginalFilename() == null ? "upload" : f.getOriginalFilename()).replaceAll("[^a-zA-Z0-9._-]", "_");
-                Path stored = uploadDir.resolve(id + "-" + safeName);
-
-                // Save file
-                try (InputStream in = f.getInputStream()) {
-                    Files.copy(in, stored, StandardCopyOption.REPLACE_EXISTING);
-                }
-
-                // Hash
-                String sha;
-                try (InputStream in2 = Files.newInputStream(stored)) {
-                    sha = info.trizub.clamav.webclient.util.HashUtils.sha256(in2);
-                }
-
-                ScanJob job = new ScanJob();
-                job.setId(id);
-                job.setType(ScanJobType.UPLOAD);
-                job.setStatus(ScanJobStatus.QUEUED);
-                job.setTarget(safeName);
-                job.setStoredPath(stored.toString());
-                job.setSha256(sha);
-                job.setSizeBytes(f.getSize());
-                job.setEndpoint(endpoint);
-                job.setSubmittedBy(username);
-                job.setSubmittedAt(Instant.now());
-                repo.save(job);
-                jobs.add(job);
-                enqueueAfterCommit(job.getId());
-                } catch (Exception e) {
+            try (InputStream in = f.getInputStream()) {
+                jobs.add(ingest(in, f.getOriginalFilename(), endpoint, username, priority));
+            } catch (QueueFullException e) {
+                throw e;
+            } catch (Exception e) {
                 log.error("Failed to create upload job: {}", e.getMessage());
             }
         }
         return jobs;
     }
 
-    @Transactional
-    public ScanJob createPathJob(String path, ClamdEndpoint endpoint, String username) {
-        Path requested = PathPolicy.normalize(path);
+    /**
+     * Create an upload job straight from a raw request body, bypassing multipart spooling.
+     * The body is read exactly once.
+     */
+    public ScanJob createStreamJob(InputStream body, String filename, ClamdEndpoint endpoint, String username, JobPriority priority) throws IOException {
+        return ingest(body, filename, endpoint, username, priority);
+    }
 
-        if (!PathPolicy.isUnderAllowedRoots(requested, settings.allowedRoots())) {
-            throw new IllegalArgumentException("Path is not allowed by policy. Allowed roots: " + settings.allowedRoots());
+    /**
+     * Single pass over the upload: one read feeds the SHA-256 digest, the stored copy and,
+     * when streaming is enabled and a worker slot is free, clamd INSTREAM. If no slot is free
+     * (or the inline scan fails), the stored copy is queued like before.
+     */
+    private ScanJob ingest(InputStream in, String originalName, ClamdEndpoint endpoint, String username, JobPriority priority) throws IOException {
+        // Fail fast (before reading the body) when this priority class is full.
+        executor.reserve(priority);
+        boolean queued = false;
+        try {
+            ScanJob job = ingestReserved(in, originalName, endpoint, username, priority);
+            queued = job.getStatus() == ScanJobStatus.QUEUED;
+            return job;
+        } finally {
+            if (!queued) executor.cancelReservation(priority);
         }
+    }
 
+    private ScanJob ingestReserved(InputStream in, String originalName, ClamdEndpoint endpoint, String username, JobPriority priority) throws IOException {
         String id = UUID.randomUUID().toString().replace("-", "");
+        Path uploadDir = settings.uploadDir();
+        Files.createDirectories(uploadDir);
+        String safeName = (originalName == null ? "upload" : originalName).replaceAll("[^a-zA-Z0-9._-]", "_");
+        Path stored = uploadDir.resolve(id + "-" + safeName);
+
+        // endpoint == null means the pool target: scan inline on whichever endpoint the router picks now.
+        boolean pooled = endpoint == null;
+        ClamdEndpoint target = pooled && settings.uploadStreaming() ? executor.routeEndpoint() : endpoint;
+        Semaphore slot = settings.uploadStreaming() && target != null ? executor.tryAcquireSlot(target) : null;
+        boolean inline = slot != null;
+        ScanResult result = null;
+        String sha;
+        long size;
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(stored), 64 * 1024);
+             HashingTeeInputStream tee = new HashingTeeInputStream(in, out, settings.uploadMaxBytes())) {
+            if (inline) {
+                try {
+                    result = executor.scanStream(target, tee);
+                } catch (Exception e) {
+                    // The client may wrap the tee's exception; an oversized upload must not fall back to the queue.
+                    if (tee.isLimitExceeded()) throw new HashingTeeInputStream.LimitExceededException(e.getMessage());
+                    log.warn("Inline scan of upload {} failed, falling back to queue: {}", id, e.getMessage());
+                }
+            }
+            // clamd may stop reading early (e.g. on error); finish the stored copy and the hash.
+            tee.drain();
+            sha = tee.sha256Hex();
+            size = tee.getCount();
+        } catch (HashingTeeInputStream.LimitExceededException e) {
+            Files.deleteIfExists(stored);
+            throw new IllegalArgumentException("File too large: " + originalName);
+        } catch (IOException e) {
+            Files.deleteIfExists(stored);
+            throw e;
+        } finally {
+            if (inline) slot.release();
+        }
+
         ScanJob job = new ScanJob();
         job.setId(id);
-        job.setType(ScanJobType.PATH);
-        job.setStatus(ScanJobStatus.QUEUED);
-        job.setTarget(requested.toString());
-        job.setEndpoint(endpoint);
+        job.setType(ScanJobType.UPLOAD);
+        job.setStatus(result != null ? ScanJobStatus.RUNNING : ScanJobStatus.QUEUED);
+        job.setTarget(safeName);
+        job.setStoredPath(stored.toString());
+        job.setSha256(sha);
+        job.setSizeBytes(size);
+        job.setEndpoint(result != null ? target : endpoint);
+        job.setPooled(pooled);
         job.setSubmittedBy(username);
         job.setSubmittedAt(Instant.now());
+        job.setPriority(priority);
+        if (result != null) job.setStartedAt(job.getSubmittedAt());
         repo.save(job);
-        enqueueAfterCommit(job.getId());
-                return job;
+
+        if (result != null) {
+            verdictCache.record(sha, target, result);
+            ScanResult inlineResult = result;
+            afterCommit(() -> executor.completeInline(id, inlineResult, stored));
+        } else {
+            enqueueAfterCommit(id, priority);
+        }
+        return job;
+    }
+
+    @Transactional
+    public ScanJob createPathJob(String path, ClamdEndpoint endpoint, String username, JobPriority priority) {
+        Path requested = PathPolicy.normalize(path);
+
+        if (!PathPolicy.isUnderAllowedRoots(requested, settings.allowedRoots())) {
+            throw new IllegalArgumentException("Path is not allowed by policy. Allowed roots: " + settings.allowedRoots());
+        }
+
+        executor.reserve(priority);
+        try {
+            String id = UUID.randomUUID().toString().replace("-", "");
+            ScanJob job = new ScanJob();
+            job.setId(id);
+            job.setType(ScanJobType.PATH);
+            job.setStatus(ScanJobStatus.QUEUED);
+            job.setTarget(requested.toString());
+            job.setEndpoint(endpoint);
+            job.setPooled(endpoint == null);
+            job.setSubmittedBy(username);
+            job.setSubmittedAt(Instant.now());
+            job.setPriority(priority);
+            repo.save(job);
+            enqueueAfterCommit(job.getId(), priority);
+            return job;
+        } catch (RuntimeException e) {
+            executor.cancelReservation(priority);
+            throw e;
+        }
     }
 
     @Transactional
     public ScanJob createWatchFileJob(Path file, ClamdEndpoint endpoint, String username) {
-        String id = UUID.randomUUID().toString().replace("-", "");
-        ScanJob job = new ScanJob();
-        job.setId(id);
-        job.setType(ScanJobType.WATCH);
-        job.setStatus(ScanJobStatus.QUEUED);
-        job.setTarget(file.toAbsolutePath().normalize().toString());
-        job.setEndpoint(endpoint);
-        job.setSubmittedBy(username != null ? username : "watcher");
-        job.setSubmittedAt(Instant.now());
-        repo.save(job);
-        enqueueAfterCommit(job.getId());
-                return job;
+        executor.reserve(JobPriority.BACKGROUND);
+        try {
+            String id = UUID.randomUUID().toString().replace("-", "");
+            ScanJob job = new ScanJob();
+            job.setId(id);
+            job.setType(ScanJobType.WATCH);
+            job.setStatus(ScanJobStatus.QUEUED);
+            job.setTarget(file.toAbsolutePath().normalize().toString());
+            job.setEndpoint(endpoint);
+            job.setPooled(endpoint == null);
+            job.setSubmittedBy(username != null ? username : "watcher");
+            job.setSubmittedAt(Instant.now());
+            job.setPriority(JobPriority.BACKGROUND);
+            repo.save(job);
+            enqueueAfterCommit(job.getId(), JobPriority.BACKGROUND);
+            return job;
+        } catch (RuntimeException e) {
+            executor.cancelReservation(JobPriority.BACKGROUND);
+            throw e;
+        }
+    }
+
+    /**
+     * One BATCH job for a list of watched files. The list is stored next to the uploads
+     * (one absolute path per line) and scanned file by file; target is the watched directory.
+     */
+    @Transactional
+    public ScanJob createBatchJob(String watchPath, List<Path> files, ClamdEndpoint endpoint, String username) {
+        executor.reserve(JobPriority.BACKGROUND);
+        Path list = null;
+        try {
+            String id = UUID.randomUUID().toString().replace("-", "");
+            Path dir = settings.uploadDir().resolve("batches");
+            Files.createDirectories(dir);
+            list = dir.resolve(id + ".lst");
+            Files.write(list, files.stream().map(p -> p.toAbsolutePath().normalize().toString()).toList());
+
+            ScanJob job = new ScanJob();
+            job.setId(id);
+            job.setType(ScanJobType.BATCH);
+            job.setStatus(ScanJobStatus.QUEUED);
+            job.setTarget(watchPath);
+            job.setStoredPath(list.toString());
+            job.setEndpoint(endpoint);
+            job.setPooled(endpoint == null);
+            job.setSubmittedBy(username != null ? username : "watcher");
+            job.setSubmittedAt(Instant.now());
+            job.setPriority(JobPriority.BACKGROUND);
+            repo.save(job);
+            enqueueAfterCommit(job.getId(), JobPriority.BACKGROUND);
+            return job;
+        } catch (IOException | RuntimeException e) {
+            executor.cancelReservation(JobPriority.BACKGROUND);
+            if (list != null) {
+                try { Files.deleteIfExists(list); } catch (IOException ignored) {}
+            }
+            if (e instanceof RuntimeException re) throw re;
+            throw new UncheckedIOException("Failed to store batch file list: " + e.getMessage(), (IOException) e);
+        }
     }
 
     
-private void enqueueAfterCommit(String jobId) {
+/**
+ * Hand a job to the executor once its row is committed. The caller must already hold a
+ * queue reservation for the priority (ScanExecutionService.reserve); it is released if the
+ * transaction rolls back.
+ */
+private void enqueueAfterCommit(String jobId, JobPriority priority) {
     if (TransactionSynchronizationManager.isActualTransactionActive()) {
         TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
             @Override
             public void afterCommit() {
-                executor.enqueue(jobId);
+                executor.enqueueReserved(jobId, priority);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED) executor.cancelReservation(priority);
             }
         });
     } else {
-        executor.enqueue(jobId);
+        executor.enqueueReserved(jobId, priority);
     }
 }
 
-@Transactional
-    public void finishOk(String id) {
-        ScanJob job = repo.findById(id).orElseThrow();
-        job.setStatus(ScanJobStatus.FINISHED);
-        job.setVerdict(ScanVerdict.OK);
-        job.setFinishedAt(Instant.now());
-        repo.save(job);
-    }
-
-    @Transactional
-    public void finishFound(String id, Object foundViruses) {
-        ScanJob job = repo.findById(id).orElseThrow();
-        job.setStatus(ScanJobStatus.FINISHED);
-        job.setVerdict(ScanVerdict.VIRUS_FOUND);
-        try {
-            job.setFoundVirusesJson(mapper.writeValueAsString(foundViruses));
-        } catch (Exception e) {
-            job.setFoundVirusesJson(String.valueOf(foundViruses));
-        }
-        job.setFinishedAt(Instant.now());
-        repo.save(job);
-    }
-
-    @Transactional
-    public void finishError(String id, String message) {
-        ScanJob job = repo.findById(id).orElseThrow();
-        job.setStatus(ScanJobStatus.FINISHED);
-        job.setVerdict(ScanVerdict.ERROR);
-        job.setErrorMessage(message);
-        job.setFinishedAt(Instant.now());
-        repo.save(job);
-    }
-
-    @Transactional
-    public void markRunning(String id) {
-        ScanJob job = repo.findById(id).orElseThrow();
-        job.setStatus(ScanJobStatus.RUNNING);
-        job.setStartedAt(Instant.now());
-        repo.save(job);
+/**
+ * Run once the current transaction (if any) has committed, e.g. so a completion UPDATE
+ * finds the job row. The action gets its own transaction: in afterCommit() the committed
+ * one is still bound and would silently swallow further writes.
+ */
+private void afterCommit(Runnable action) {
+    if (TransactionSynchronizationManager.isActualTransactionActive()) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                newTransaction.executeWithoutResult(status -> action.run());
+            }
+        });
+    } else {
+        action.run();
     }
+}
 
-    @Transactional
-    public void setQuarantinePath(String id, String quarantinePath) {
-        ScanJob job = repo.findById(id).orElseThrow();
-        job.setQuarantinePath(quarantinePath);
-        repo.save(job);
-    }
+static JobPriority priorityOf(JobPriority priority) {
+    return priority != null ? priority : JobPriority.API;
+}
 }
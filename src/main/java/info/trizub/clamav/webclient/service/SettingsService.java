@@ -22,7 +22,17 @@ public class SettingsService {
     // Keys
     private static final String ALLOWED_SCAN_ROOTS = "app.allowedScanRoots";
     private static final String UPLOAD_MAX_BYTES = "app.upload.maxBytes";
+    private static final String UPLOAD_STREAMING = "app.upload.streaming";
     private static final String CONCURRENT_SCANS = "app.concurrentScans";
+    private static final String EXECUTOR_MODE = "app.executor.mode";
+    private static final String EXECUTOR_MAX_IN_FLIGHT = "app.executor.maxInFlight";
+    private static final String QUEUE_CAPACITY = "app.queue.capacity";
+    private static final String QUEUE_RETRY_AFTER_SECONDS = "app.queue.retryAfterSeconds";
+    private static final String JOB_COMPLETION_BATCH_MS = "app.jobs.completionBatchMs";
+    private static final String PATH_SCAN_MODE = "app.pathScan.mode";
+    private static final String PATH_SCAN_PARALLELISM = "app.pathScan.parallelism";
+    private static final String ROUTING_STRATEGY = "app.routing.strategy";
+    private static final String ROUTING_COOLDOWN_SECONDS = "app.routing.cooldownSeconds";
     private static final String UPLOAD_DIR = "app.storage.uploadDir";
     private static final String QUARANTINE_DIR = "app.storage.quarantineDir";
     private static final String QUARANTINE_ENABLED = "app.quarantine.enabled";
@@ -30,6 +40,39 @@ public class SettingsService {
     private static final String WEBHOOK_URL = "app.webhook.url";
     private static final String WATCH_ENABLED = "app.watch.enabled";
     private static final String WATCH_POLL_SECONDS = "app.watch.pollSeconds";
+    private static final String WATCH_MODE = "app.watch.mode";
+    private static final String WATCH_RECONCILE_MINUTES = "app.watch.reconcileMinutes";
+    private static final String WATCH_SWEEP_MAX_FILES = "app.watch.sweepMaxFiles";
+    private static final String WATCH_SWEEP_MAX_SECONDS = "app.watch.sweepMaxSeconds";
+    private static final String WATCH_CRAWL_PARALLELISM = "app.watch.crawlParallelism";
+    private static final String WATCH_QUIET_SECONDS = "app.watch.quietSeconds";
+    private static final String WATCH_STABLE_MARKER_SUFFIX = "app.watch.stableMarkerSuffix";
+    private static final String WATCH_MOVE_DETECTION = "app.watch.moveDetection";
+    private static final String WATCH_BATCH_ENABLED = "app.watch.batch.enabled";
+    private static final String WATCH_BATCH_WINDOW_SECONDS = "app.watch.batch.windowSeconds";
+    private static final String WATCH_BATCH_MAX_FILES = "app.watch.batch.maxFiles";
+    private static final String CLAMD_POOL_ENABLED = "app.clamd.pool.enabled";
+    private static final String CLAMD_POOL_MAX_PER_ENDPOINT = "app.clamd.pool.maxPerEndpoint";
+    private static final String CLAMD_POOL_IDLE_SECONDS = "app.clamd.pool.idleSeconds";
+    private static final String CLAMD_POOL_ACQUIRE_TIMEOUT_MS = "app.clamd.pool.acquireTimeoutMs";
+    private static final String CLAMD_POOL_READ_TIMEOUT_MS = "app.clamd.pool.readTimeoutMs";
+    private static final String CACHE_ENABLED = "app.cache.enabled";
+    private static final String CACHE_MAX_ENTRIES = "app.cache.maxEntries";
+    private static final String CACHE_TTL_DAYS = "app.cache.ttlDays";
+    private static final String CACHE_VERSION_TTL_SECONDS = "app.cache.versionTtlSeconds";
+    private static final String RESCAN_ENABLED = "app.rescan.enabled";
+    private static final String RESCAN_FILES_PER_MINUTE = "app.rescan.filesPerMinute";
+    private static final String RESCAN_BATCH_SIZE = "app.rescan.batchSize";
+    private static final String RECOVERY_JOBS_PER_SECOND = "app.recovery.jobsPerSecond";
+    private static final String AUDIT_FLUSH_MS = "app.audit.flushMs";
+    private static final String AUDIT_BATCH_SIZE = "app.audit.batchSize";
+    private static final String AUDIT_QUEUE_CAPACITY = "app.audit.queueCapacity";
+    private static final String AUDIT_SPILL_FILE = "app.audit.spillFile";
+    private static final String RETENTION_ENABLED = "app.retention.enabled";
+    private static final String RETENTION_JOBS_DAYS = "app.retention.jobsDays";
+    private static final String RETENTION_AUDIT_DAYS = "app.retention.auditDays";
+    private static final String RETENTION_BATCH_SIZE = "app.retention.batchSize";
+    private static final String RETENTION_ARCHIVE_DIR = "app.retention.archiveDir";
 
     // Legacy keys (kept for backward compatibility)
     private static final String CLAMAV_SERVICE_HOST_PROPERTY = "clamav.service.host";
@@ -45,7 +88,17 @@ public class SettingsService {
             // Defaults
             props.putIfAbsent(ALLOWED_SCAN_ROOTS, "/scandir");
             props.putIfAbsent(UPLOAD_MAX_BYTES, String.valueOf(2L * 1024 * 1024 * 1024)); // 2GiB
+            props.putIfAbsent(UPLOAD_STREAMING, "true");
             props.putIfAbsent(CONCURRENT_SCANS, "2");
+            props.putIfAbsent(EXECUTOR_MODE, "platform");
+            props.putIfAbsent(EXECUTOR_MAX_IN_FLIGHT, "256");
+            props.putIfAbsent(QUEUE_CAPACITY, "1000");
+            props.putIfAbsent(QUEUE_RETRY_AFTER_SECONDS, "30");
+            props.putIfAbsent(JOB_COMPLETION_BATCH_MS, "0");
+            props.putIfAbsent(PATH_SCAN_MODE, "clamd");
+            props.putIfAbsent(PATH_SCAN_PARALLELISM, "4");
+            props.putIfAbsent(ROUTING_STRATEGY, "least-outstanding");
+            props.putIfAbsent(ROUTING_COOLDOWN_SECONDS, "30");
             props.putIfAbsent(UPLOAD_DIR, "./data/uploads");
             props.putIfAbsent(QUARANTINE_DIR, "./data/quarantine");
             props.putIfAbsent(QUARANTINE_ENABLED, "false");
@@ -53,6 +106,39 @@ public class SettingsService {
             props.putIfAbsent(WEBHOOK_URL, "");
             props.putIfAbsent(WATCH_ENABLED, "false");
             props.putIfAbsent(WATCH_POLL_SECONDS, "30");
+            props.putIfAbsent(WATCH_MODE, "poll");
+            props.putIfAbsent(WATCH_RECONCILE_MINUTES, "60");
+            props.putIfAbsent(WATCH_SWEEP_MAX_FILES, "10000");
+            props.putIfAbsent(WATCH_SWEEP_MAX_SECONDS, "20");
+            props.putIfAbsent(WATCH_CRAWL_PARALLELISM, "4");
+            props.putIfAbsent(WATCH_QUIET_SECONDS, "0");
+            props.putIfAbsent(WATCH_STABLE_MARKER_SUFFIX, "");
+            props.putIfAbsent(WATCH_MOVE_DETECTION, "key");
+            props.putIfAbsent(WATCH_BATCH_ENABLED, "false");
+            props.putIfAbsent(WATCH_BATCH_WINDOW_SECONDS, "10");
+            props.putIfAbsent(WATCH_BATCH_MAX_FILES, "1000");
+            props.putIfAbsent(CLAMD_POOL_ENABLED, "true");
+            props.putIfAbsent(CLAMD_POOL_MAX_PER_ENDPOINT, "8");
+            props.putIfAbsent(CLAMD_POOL_IDLE_SECONDS, "20");
+            props.putIfAbsent(CLAMD_POOL_ACQUIRE_TIMEOUT_MS, "30000");
+            props.putIfAbsent(CLAMD_POOL_READ_TIMEOUT_MS, "300000");
+            props.putIfAbsent(CACHE_ENABLED, "true");
+            props.putIfAbsent(CACHE_MAX_ENTRIES, "10000");
+            props.putIfAbsent(CACHE_TTL_DAYS, "30");
+            props.putIfAbsent(CACHE_VERSION_TTL_SECONDS, "300");
+            props.putIfAbsent(RESCAN_ENABLED, "true");
+            props.putIfAbsent(RESCAN_FILES_PER_MINUTE, "300");
+            props.putIfAbsent(RESCAN_BATCH_SIZE, "100");
+            props.putIfAbsent(RECOVERY_JOBS_PER_SECOND, "200");
+            props.putIfAbsent(AUDIT_FLUSH_MS, "1000");
+            props.putIfAbsent(AUDIT_BATCH_SIZE, "500");
+            props.putIfAbsent(AUDIT_QUEUE_CAPACITY, "10000");
+            props.putIfAbsent(AUDIT_SPILL_FILE, "./data/audit-spill.ndjson");
+            props.putIfAbsent(RETENTION_ENABLED, "false");
+            props.putIfAbsent(RETENTION_JOBS_DAYS, "90");
+            props.putIfAbsent(RETENTION_AUDIT_DAYS, "365");
+            props.putIfAbsent(RETENTION_BATCH_SIZE, "1000");
+            props.putIfAbsent(RETENTION_ARCHIVE_DIR, "./data/archive");
 
             // Legacy defaults if absent
             props.putIfAbsent(CLAMAV_SERVICE_HOST_PROPERTY, Optional.ofNullable(System.getenv("CLAMAV_HOST")).orElse("localhost"));
@@ -103,10 +189,81 @@ public class SettingsService {
         try { return Long.parseLong(props.getProperty(UPLOAD_MAX_BYTES)); } catch (Exception e) { return 2L * 1024 * 1024 * 1024; }
     }
 
+    /**
+     * When true, an upload is scanned while it is being received (if a worker slot is free),
+     * instead of being stored first and scanned later from disk.
+     */
+    public boolean uploadStreaming() {
+        return Boolean.parseBoolean(props.getProperty(UPLOAD_STREAMING, "true"));
+    }
+
     public int concurrentScans() {
         try { return Integer.parseInt(props.getProperty(CONCURRENT_SCANS)); } catch (Exception e) { return 2; }
     }
 
+    /**
+     * "platform": fixed pool of app.concurrentScans threads shared by all endpoints (default).
+     * "virtual": one virtual thread per job, limited per endpoint by ClamdEndpoint.maxConcurrency.
+     */
+    public boolean virtualThreadExecutor() {
+        return "virtual".equalsIgnoreCase(props.getProperty(EXECUTOR_MODE, "platform").trim());
+    }
+
+    /**
+     * Virtual mode only: jobs dispatched to virtual threads at once, across all endpoints.
+     */
+    public int executorMaxInFlight() {
+        try { return Integer.parseInt(props.getProperty(EXECUTOR_MAX_IN_FLIGHT, "256")); } catch (Exception e) { return 256; }
+    }
+
+    /**
+     * Max queued jobs per priority class (interactive, API, background).
+     */
+    public int queueCapacity() {
+        try { return Integer.parseInt(props.getProperty(QUEUE_CAPACITY, "1000")); } catch (Exception e) { return 1000; }
+    }
+
+    public int queueRetryAfterSeconds() {
+        try { return Integer.parseInt(props.getProperty(QUEUE_RETRY_AFTER_SECONDS, "30")); } catch (Exception e) { return 30; }
+    }
+
+    /**
+     * 0: write each finished job right away; otherwise collect completions and write them as one batch this often.
+     */
+    public long jobCompletionBatchMs() {
+        try { return Long.parseLong(props.getProperty(JOB_COMPLETION_BATCH_MS, "0")); } catch (Exception e) { return 0; }
+    }
+
+    /**
+     * PATH jobs: "clamd" sends the whole tree to clamd in one request; "fanout" walks it here
+     * and scans file by file, with per-file results and live progress.
+     */
+    public boolean pathScanFanout() {
+        return "fanout".equalsIgnoreCase(props.getProperty(PATH_SCAN_MODE, "clamd").trim());
+    }
+
+    /**
+     * Fanout mode: files of one PATH job scanned at the same time, as far as the endpoint's slots
+     * (maxConcurrency, else concurrentScans) not used by other jobs allow.
+     */
+    public int pathScanParallelism() {
+        try { return Integer.parseInt(props.getProperty(PATH_SCAN_PARALLELISM, "4")); } catch (Exception e) { return 4; }
+    }
+
+    /**
+     * How pool jobs pick an endpoint: "least-outstanding" or "ewma".
+     */
+    public String routingStrategy() {
+        return props.getProperty(ROUTING_STRATEGY, "least-outstanding").trim();
+    }
+
+    /**
+     * Seconds an endpoint is skipped by the router after a connection failure.
+     */
+    public int routingCooldownSeconds() {
+        try { return Integer.parseInt(props.getProperty(ROUTING_COOLDOWN_SECONDS, "30")); } catch (Exception e) { return 30; }
+    }
+
     public Path uploadDir() {
         return Paths.get(props.getProperty(UPLOAD_DIR, "./data/uploads")).toAbsolutePath().normalize();
     }
@@ -135,6 +292,222 @@ public class SettingsService {
         try { return Integer.parseInt(props.getProperty(WATCH_POLL_SECONDS, "30")); } catch (Exception e) { return 30; }
     }
 
+    /**
+     * "poll" walks every watched directory each poll interval; "events" reacts to file system
+     * notifications (inotify on Linux) and only walks the trees every app.watch.reconcileMinutes.
+     */
+    public boolean watchEventMode() {
+        return "events".equalsIgnoreCase(props.getProperty(WATCH_MODE, "poll").trim());
+    }
+
+    /**
+     * Events mode: minutes between full walks that catch changes the notifications missed.
+     */
+    public int watchReconcileMinutes() {
+        try { return Integer.parseInt(props.getProperty(WATCH_RECONCILE_MINUTES, "60")); } catch (Exception e) { return 60; }
+    }
+
+    /**
+     * Files one poll looks at per watched directory before it saves its place and yields;
+     * the next poll continues from there until the whole tree has been swept.
+     */
+    public int watchSweepMaxFiles() {
+        try { return Integer.parseInt(props.getProperty(WATCH_SWEEP_MAX_FILES, "10000")); } catch (Exception e) { return 10000; }
+    }
+
+    /**
+     * Time budget (seconds) of one poll per watched directory, see watchSweepMaxFiles.
+     */
+    public int watchSweepMaxSeconds() {
+        try { return Integer.parseInt(props.getProperty(WATCH_SWEEP_MAX_SECONDS, "20")); } catch (Exception e) { return 20; }
+    }
+
+    /**
+     * Threads crawling watched directories: directories are swept side by side and idle threads
+     * help list the subtrees of large ones.
+     */
+    public int watchCrawlParallelism() {
+        try { return Integer.parseInt(props.getProperty(WATCH_CRAWL_PARALLELISM, "4")); } catch (Exception e) { return 4; }
+    }
+
+    /**
+     * Seconds a changed file's size and mtime must stay the same before it is scanned
+     * (0 = scan on the first change seen).
+     */
+    public int watchQuietSeconds() {
+        try { return Integer.parseInt(props.getProperty(WATCH_QUIET_SECONDS, "0")); } catch (Exception e) { return 0; }
+    }
+
+    /**
+     * With a quiet period: a file is scanned right away once "file name + this suffix" exists
+     * (e.g. ".done" written by the producer after the copy). Empty = no marker.
+     */
+    public String watchStableMarkerSuffix() {
+        return props.getProperty(WATCH_STABLE_MARKER_SUFFIX, "").trim();
+    }
+
+    /**
+     * How the watcher recognises a moved or renamed file instead of scanning it again:
+     * "key" = same file key (device + inode), size and mtime as a processed file whose old path is
+     * gone; "hash" = additionally the same SHA-256 (files are hashed when queued); "off" = never.
+     */
+    public String watchMoveDetection() {
+        String mode = props.getProperty(WATCH_MOVE_DETECTION, "key").trim().toLowerCase(Locale.ROOT);
+        return mode.equals("off") || mode.equals("hash") ? mode : "key";
+    }
+
+    /**
+     * Group the watcher's changes per watched directory into one BATCH job (a file list)
+     * instead of one WATCH job per file.
+     */
+    public boolean watchBatchEnabled() {
+        return Boolean.parseBoolean(props.getProperty(WATCH_BATCH_ENABLED, "false"));
+    }
+
+    /**
+     * Batch mode: seconds a batch stays open after its first change.
+     */
+    public int watchBatchWindowSeconds() {
+        try { return Integer.parseInt(props.getProperty(WATCH_BATCH_WINDOW_SECONDS, "10")); } catch (Exception e) { return 10; }
+    }
+
+    /**
+     * Batch mode: a batch is submitted early once it holds this many files.
+     */
+    public int watchBatchMaxFiles() {
+        try { return Integer.parseInt(props.getProperty(WATCH_BATCH_MAX_FILES, "1000")); } catch (Exception e) { return 1000; }
+    }
+
+    public boolean clamdPoolEnabled() {
+        return Boolean.parseBoolean(props.getProperty(CLAMD_POOL_ENABLED, "true"));
+    }
+
+    public int clamdPoolMaxPerEndpoint() {
+        try { return Integer.parseInt(props.getProperty(CLAMD_POOL_MAX_PER_ENDPOINT, "8")); } catch (Exception e) { return 8; }
+    }
+
+    /**
+     * Idle sessions are closed after this many seconds; keep it below clamd's IdleTimeout (30s by default).
+     */
+    public int clamdPoolIdleSeconds() {
+        try { return Integer.parseInt(props.getProperty(CLAMD_POOL_IDLE_SECONDS, "20")); } catch (Exception e) { return 20; }
+    }
+
+    public long clamdPoolAcquireTimeoutMs() {
+        try { return Long.parseLong(props.getProperty(CLAMD_POOL_ACQUIRE_TIMEOUT_MS, "30000")); } catch (Exception e) { return 30000L; }
+    }
+
+    /**
+     * Longest wait for a clamd reply on a pooled session; must exceed the slowest single scan.
+     */
+    public long clamdPoolReadTimeoutMs() {
+        try { return Long.parseLong(props.getProperty(CLAMD_POOL_READ_TIMEOUT_MS, "300000")); } catch (Exception e) { return 300000L; }
+    }
+
+    public boolean cacheEnabled() {
+        return Boolean.parseBoolean(props.getProperty(CACHE_ENABLED, "true"));
+    }
+
+    public int cacheMaxEntries() {
+        try { return Integer.parseInt(props.getProperty(CACHE_MAX_ENTRIES, "10000")); } catch (Exception e) { return 10000; }
+    }
+
+    public int cacheTtlDays() {
+        try { return Integer.parseInt(props.getProperty(CACHE_TTL_DAYS, "30")); } catch (Exception e) { return 30; }
+    }
+
+    /**
+     * How long a clamd signature version is trusted before VERSION is asked again.
+     */
+    public int cacheVersionTtlSeconds() {
+        try { return Integer.parseInt(props.getProperty(CACHE_VERSION_TTL_SECONDS, "300")); } catch (Exception e) { return 300; }
+    }
+
+    /**
+     * After a signature update, rescan watched files that were clean under the old signatures.
+     */
+    public boolean rescanEnabled() {
+        return Boolean.parseBoolean(props.getProperty(RESCAN_ENABLED, "true"));
+    }
+
+    /**
+     * Upper bound on files queued for signature rescans per minute.
+     */
+    public int rescanFilesPerMinute() {
+        try { return Integer.parseInt(props.getProperty(RESCAN_FILES_PER_MINUTE, "300")); } catch (Exception e) { return 300; }
+    }
+
+    /**
+     * Files per signature-rescan BATCH job.
+     */
+    public int rescanBatchSize() {
+        try { return Integer.parseInt(props.getProperty(RESCAN_BATCH_SIZE, "100")); } catch (Exception e) { return 100; }
+    }
+
+    /**
+     * Rate at which jobs left unfinished by the previous run are re-enqueued after startup.
+     */
+    public int recoveryJobsPerSecond() {
+        try { return Integer.parseInt(props.getProperty(RECOVERY_JOBS_PER_SECOND, "200")); } catch (Exception e) { return 200; }
+    }
+
+    /**
+     * Interval of the background audit writer (0 = insert each event synchronously).
+     */
+    public long auditFlushMs() {
+        try { return Long.parseLong(props.getProperty(AUDIT_FLUSH_MS, "1000")); } catch (Exception e) { return 1000; }
+    }
+
+    /**
+     * Audit events per JDBC batch insert.
+     */
+    public int auditBatchSize() {
+        try { return Integer.parseInt(props.getProperty(AUDIT_BATCH_SIZE, "500")); } catch (Exception e) { return 500; }
+    }
+
+    /**
+     * Audit events held in memory before new ones go to the spill file.
+     */
+    public int auditQueueCapacity() {
+        try { return Integer.parseInt(props.getProperty(AUDIT_QUEUE_CAPACITY, "10000")); } catch (Exception e) { return 10000; }
+    }
+
+    public Path auditSpillFile() {
+        return Paths.get(props.getProperty(AUDIT_SPILL_FILE, "./data/audit-spill.ndjson")).toAbsolutePath().normalize();
+    }
+
+    /**
+     * Move old finished jobs and audit events out of the database into archive segments.
+     */
+    public boolean retentionEnabled() {
+        return Boolean.parseBoolean(props.getProperty(RETENTION_ENABLED, "false"));
+    }
+
+    /**
+     * Age in days after which finished jobs are archived (0 = keep forever).
+     */
+    public int retentionJobsDays() {
+        try { return Integer.parseInt(props.getProperty(RETENTION_JOBS_DAYS, "90")); } catch (Exception e) { return 90; }
+    }
+
+    /**
+     * Age in days after which audit events are archived (0 = keep forever).
+     */
+    public int retentionAuditDays() {
+        try { return Integer.parseInt(props.getProperty(RETENTION_AUDIT_DAYS, "365")); } catch (Exception e) { return 365; }
+    }
+
+    /**
+     * Rows per archive batch (one segment and one delete transaction each).
+     */
+    public int retentionBatchSize() {
+        try { return Integer.parseInt(props.getProperty(RETENTION_BATCH_SIZE, "1000")); } catch (Exception e) { return 1000; }
+    }
+
+    public Path retentionArchiveDir() {
+        return Paths.get(props.getProperty(RETENTION_ARCHIVE_DIR, "./data/archive")).toAbsolutePath().normalize();
+    }
+
     // Legacy getters
     public String legacyHost() { return props.getProperty(CLAMAV_SERVICE_HOST_PROPERTY, "localhost"); }
     public int legacyPort() { try { return Integer.parseInt(props.getProperty(CLAMAV_SERVICE_PORT_PROPERTY, "3310")); } catch (Exception e) { return 3310; } }
@@ -0,0 +1,206 @@
+package info.trizub.clamav.webclient.service;
+
+import info.trizub.clamav.webclient.model.ClamdEndpoint;
+import info.trizub.clamav.webclient.model.JobPriority;
+import info.trizub.clamav.webclient.model.WatchedDirectory;
+import info.trizub.clamav.webclient.repo.ClamdEndpointRepository;
+import info.trizub.clamav.webclient.repo.WatchedDirectoryRepository;
+import info.trizub.clamav.webclient.util.PathPolicy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Rescans watched files after a signature update.
+ *
+ * The signature version of every enabled endpoint is checked each minute and stored on the
+ * endpoint. Watched files remember the version they were last found clean with
+ * (processed_files.clean_version); once an endpoint reports a newer version, files clean under an
+ * older one are queued again as BACKGROUND BATCH jobs on an endpoint that has it, most recently
+ * modified first.
+ *
+ * Rescans are limited to app.rescan.filesPerMinute and pause while interactive or API jobs are
+ * waiting or the background queue already holds work for every worker slot.
+ */
+@Service
+public class SignatureRescanService {
+
+    private static final Logger log = LoggerFactory.getLogger(SignatureRescanService.class);
+
+    private final SettingsService settings;
+    private final EndpointService endpoints;
+    private final ClamdEndpointRepository endpointRepo;
+    private final SignatureVersionService versions;
+    private final ProcessedFileStore processedFiles;
+    private final ScanJobService scanJobService;
+    private final ScanExecutionService executor;
+    private final WatchedDirectoryRepository watchRepo;
+
+    // Token bucket, refilled at app.rescan.filesPerMinute and holding at most one minute's worth.
+    private double tokens;
+    private long refilledAtMs = System.currentTimeMillis();
+    private int nextEndpoint;
+
+    public SignatureRescanService(SettingsService settings,
+                                  EndpointService endpoints,
+                                  ClamdEndpointRepository endpointRepo,
+                                  SignatureVersionService versions,
+                                  ProcessedFileStore processedFiles,
+                                  ScanJobService scanJobService,
+                                  ScanExecutionService executor,
+                                  WatchedDirectoryRepository watchRepo) {
+        this.settings = settings;
+        this.endpoints = endpoints;
+        this.endpointRepo = endpointRepo;
+        this.versions = versions;
+        this.processedFiles = processedFiles;
+        this.scanJobService = scanJobService;
+        this.executor = executor;
+        this.watchRepo = watchRepo;
+    }
+
+    @Scheduled(initialDelay = 15000, fixedDelay = 60000)
+    public void checkVersions() {
+        for (ClamdEndpoint ep : endpoints.all()) {
+            if (!ep.isEnabled()) continue;
+            String v = versions.current(ep);
+            if (v == null || v.equals(ep.getSignatureVersion())) continue;
+            try {
+                endpointRepo.saveSignatureVersion(ep.getId(), v, Instant.now());
+            } catch (Exception e) {
+                log.warn("Could not store signature version of endpoint {}: {}", ep.getName(), e.getMessage());
+                continue;
+            }
+            if (ep.getSignatureVersion() == null) {
+                log.info("Endpoint {} signature version {}", ep.getName(), v);
+            } else {
+                log.info("Endpoint {} signatures updated: {} -> {}", ep.getName(), ep.getSignatureVersion(), v);
+            }
+        }
+    }
+
+    @Scheduled(initialDelay = 20000, fixedDelay = 5000)
+    public synchronized void rescanDue() {
+        long now = System.currentTimeMillis();
+        int perMinute = Math.max(0, settings.rescanFilesPerMinute());
+        tokens = Math.min(perMinute, tokens + (now - refilledAtMs) * perMinute / 60_000d);
+        refilledAtMs = now;
+        if (!settings.rescanEnabled() || perMinute == 0) return;
+
+        // Full batches only, unless the rate is below one batch per minute.
+        int batch = Math.min(Math.max(1, settings.rescanBatchSize()), perMinute);
+        if (tokens < batch || busy()) return;
+
+        List<ClamdEndpoint> current = upToDate();
+        if (current.isEmpty()) return;
+        String target = current.get(0).getSignatureVersion();
+        try {
+            List<String> paths = processedFiles.cleanBefore(target, batch);
+            if (paths.isEmpty()) return;
+            ClamdEndpoint ep = current.get(Math.floorMod(nextEndpoint++, current.size()));
+            submit(paths, ep);
+            tokens -= paths.size();
+        } catch (QueueFullException e) {
+            log.debug("Scan queue full, signature rescan retried later");
+        } catch (Exception e) {
+            log.warn("Signature rescan error: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * One BATCH job per watched directory the paths belong to. Paths that no longer exist are
+     * dropped; all picked paths lose their clean version so they are not picked again.
+     */
+    private void submit(List<String> paths, ClamdEndpoint ep) {
+        List<WatchedDirectory> dirs = watchRepo.findAll();
+        Map<String, List<Path>> byDir = new LinkedHashMap<>();
+        for (String p : paths) {
+            Path file = Path.of(p);
+            if (!Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS)) continue;
+            byDir.computeIfAbsent(watchPathOf(file, dirs), k -> new ArrayList<>()).add(file);
+        }
+        List<String> done = new ArrayList<>(paths.size());
+        try {
+            for (Map.Entry<String, List<Path>> e : byDir.entrySet()) {
+                scanJobService.createBatchJob(e.getKey(), e.getValue(), ep, "rescan");
+                e.getValue().forEach(f -> done.add(f.toString()));
+            }
+            for (String p : paths) {
+                if (!Files.isRegularFile(Path.of(p), LinkOption.NOFOLLOW_LINKS)) done.add(p);
+            }
+        } finally {
+            processedFiles.clearClean(done);
+        }
+        log.info("Signature rescan: {} files queued on {} ({} remaining)", paths.size(), ep.getName(),
+                processedFiles.countCleanBefore(ep.getSignatureVersion()));
+    }
+
+    private static String watchPathOf(Path file, List<WatchedDirectory> dirs) {
+        Path best = null;
+        for (WatchedDirectory wd : dirs) {
+            Path root = PathPolicy.normalize(wd.getPath());
+            if (file.startsWith(root) && (best == null || root.getNameCount() > best.getNameCount())) best = root;
+        }
+        return (best != null ? best : file.getParent()).toString();
+    }
+
+    private boolean busy() {
+        Map<JobPriority, Integer> depth = executor.queueDepths();
+        return depth.getOrDefault(JobPriority.INTERACTIVE, 0) > 0
+                || depth.getOrDefault(JobPriority.API, 0) > 0
+                || depth.getOrDefault(JobPriority.BACKGROUND, 0) >= Math.max(1, settings.concurrentScans());
+    }
+
+    /**
+     * Enabled endpoints reporting the newest version seen (highest signature number, then engine
+     * version), so files rescanned on any of them end up with the same clean version.
+     */
+    private List<ClamdEndpoint> upToDate() {
+        Comparator<String> order = Comparator.<String>comparingLong(SignatureRescanService::signatureNumber)
+                .thenComparing(Comparator.naturalOrder());
+        List<ClamdEndpoint> known = endpoints.all().stream()
+                .filter(ClamdEndpoint::isEnabled)
+                .filter(ep -> ep.getSignatureVersion() != null)
+                .toList();
+        String newest = known.stream().map(ClamdEndpoint::getSignatureVersion).max(order).orElse(null);
+        return known.stream().filter(ep -> ep.getSignatureVersion().equals(newest)).toList();
+    }
+
+    /** "1.0.5/27190" -> 27190; -1 if the version has no signature number. */
+    static long signatureNumber(String version) {
+        int slash = version.indexOf('/');
+        if (slash < 0) return -1;
+        try {
+            return Long.parseLong(version.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public Map<String, Object> status() {
+        List<ClamdEndpoint> current = upToDate();
+        String target = current.isEmpty() ? null : current.get(0).getSignatureVersion();
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("enabled", settings.rescanEnabled());
+        m.put("filesPerMinute", settings.rescanFilesPerMinute());
+        m.put("targetVersion", target);
+        m.put("pendingFiles", target == null ? 0 : processedFiles.countCleanBefore(target));
+        List<Map<String, Object>> eps = new ArrayList<>();
+        for (ClamdEndpoint ep : endpoints.all()) {
+            Map<String, Object> e = new LinkedHashMap<>();
+            e.put("name", ep.getName());
+            e.put("signatureVersion", ep.getSignatureVersion());
+            e.put("signatureVersionAt", ep.getSignatureVersionAt());
+            eps.add(e);
+        }
+        m.put("endpoints", eps);
+        return m;
+    }
+}
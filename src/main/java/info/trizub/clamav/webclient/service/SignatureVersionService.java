@@ -0,0 +1,63 @@
+package info.trizub.clamav.webclient.service;
+
+import info.trizub.clamav.webclient.model.ClamdEndpoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks the signature database version reported by each endpoint's VERSION command
+ * ("ClamAV 1.0.5/27190/Tue Feb 4 09:31:39 2026" -> "1.0.5/27190").
+ *
+ * Versions are cached for app.cache.versionTtlSeconds so callers on the scan path do not
+ * ask clamd for every job.
+ */
+@Service
+public class SignatureVersionService {
+
+    private static final Logger log = LoggerFactory.getLogger(SignatureVersionService.class);
+
+    private final SettingsService settings;
+    private final ClamavClientProvider clientProvider;
+    private final Map<Long, Cached> versions = new ConcurrentHashMap<>();
+
+    private record Cached(String version, long fetchedAtMs) {}
+
+    public SignatureVersionService(SettingsService settings, ClamavClientProvider clientProvider) {
+        this.settings = settings;
+        this.clientProvider = clientProvider;
+    }
+
+    /**
+     * Current signature version of the endpoint, or null if clamd cannot be asked right now.
+     */
+    public String current(ClamdEndpoint ep) {
+        if (ep == null || ep.getId() == null) return null;
+        long now = System.currentTimeMillis();
+        Cached c = versions.get(ep.getId());
+        if (c != null && now - c.fetchedAtMs() < settings.cacheVersionTtlSeconds() * 1000L) {
+            return c.version();
+        }
+        try {
+            String v = parse(clientProvider.version(ep));
+            if (v != null) versions.put(ep.getId(), new Cached(v, now));
+            return v;
+        } catch (Exception e) {
+            log.debug("VERSION failed for endpoint {}: {}", ep.getName(), e.getMessage());
+            return c != null ? c.version() : null;
+        }
+    }
+
+    static String parse(String versionReply) {
+        if (versionReply == null) return null;
+        String s = versionReply.trim();
+        if (s.startsWith("ClamAV ")) s = s.substring("ClamAV ".length());
+        int first = s.indexOf('/');
+        if (first < 0) return s.isBlank() ? null : s;
+        int second = s.indexOf('/', first + 1);
+        return second < 0 ? s : s.substring(0, second);
+    }
+}
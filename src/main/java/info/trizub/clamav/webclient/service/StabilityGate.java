@@ -0,0 +1,86 @@
+package info.trizub.clamav.webclient.service;
+
+import info.trizub.clamav.webclient.model.WatchedDirectory;
+import info.trizub.clamav.webclient.service.ProcessedFileStore.FileState;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds changed files back from scanning until they stop changing: a file is released once its
+ * size and mtime have stayed the same for the quiet period, or as soon as its sidecar marker
+ * (file name + marker suffix) exists. Changes seen while a file is held only restart its quiet
+ * period, so a file that grows over many polls is scanned once.
+ *
+ * Held files are not recorded as processed, so after a restart they are simply detected again.
+ */
+final class StabilityGate {
+
+    record Held(WatchedDirectory wd, FileState state, long lastChangeMs) {}
+
+    private final Map<String, Held> held = new ConcurrentHashMap<>();
+
+    /**
+     * Take changed files of wd; returns the ones that may be scanned right away (marker present).
+     */
+    List<FileState> offer(WatchedDirectory wd, List<FileState> changed, String markerSuffix) {
+        long now = System.currentTimeMillis();
+        List<FileState> ready = new ArrayList<>();
+        for (FileState f : changed) {
+            if (hasMarker(f.path(), markerSuffix)) {
+                held.remove(f.path());
+                ready.add(f);
+                continue;
+            }
+            held.compute(f.path(), (path, h) -> h != null && h.state().equals(f) ? h : new Held(wd, f, now));
+        }
+        return ready;
+    }
+
+    /**
+     * Files whose quiet period has passed (re-checked on disk) or whose marker appeared.
+     * Files that changed again get a new quiet period; files that disappeared are dropped.
+     */
+    List<Held> due(long quietMs, String markerSuffix) {
+        long now = System.currentTimeMillis();
+        List<Held> out = new ArrayList<>();
+        for (Held h : held.values()) {
+            String path = h.state().path();
+            boolean marker = hasMarker(path, markerSuffix);
+            if (!marker && now - h.lastChangeMs() < quietMs) continue;
+            FileState current;
+            try {
+                current = FileState.read(Path.of(path));
+            } catch (Exception e) {
+                held.remove(path, h);
+                continue;
+            }
+            if (marker || current.equals(h.state())) {
+                if (held.remove(path, h)) out.add(new Held(h.wd(), current, h.lastChangeMs()));
+            } else {
+                held.replace(path, h, new Held(h.wd(), current, now));
+            }
+        }
+        return out;
+    }
+
+    long heldCount(Long watchId) {
+        return held.values().stream().filter(h -> h.wd().getId().equals(watchId)).count();
+    }
+
+    void clear() {
+        held.clear();
+    }
+
+    static boolean isMarker(String path, String markerSuffix) {
+        return markerSuffix != null && !markerSuffix.isEmpty() && path.endsWith(markerSuffix);
+    }
+
+    private static boolean hasMarker(String path, String markerSuffix) {
+        return markerSuffix != null && !markerSuffix.isEmpty() && Files.exists(Path.of(path + markerSuffix));
+    }
+}
@@ -0,0 +1,180 @@
+package info.trizub.clamav.webclient.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import info.trizub.clamav.webclient.model.ClamdEndpoint;
+import info.trizub.clamav.webclient.model.ScanVerdict;
+import info.trizub.clamav.webclient.model.VerdictCacheEntry;
+import info.trizub.clamav.webclient.repo.VerdictCacheRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import xyz.capybara.clamav.commands.scan.result.ScanResult;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Verdict cache keyed by (sha256, signature version): a bounded in-memory LRU in front of the
+ * verdict_cache table. Identical content that is already being scanned is coalesced onto the
+ * running scan instead of being sent to clamd again.
+ *
+ * Only OK and VIRUS_FOUND are cached; errors are always retried.
+ */
+@Service
+public class VerdictCacheService {
+
+    private static final Logger log = LoggerFactory.getLogger(VerdictCacheService.class);
+
+    private static final TypeReference<Map<String, Collection<String>>> FOUND_TYPE = new TypeReference<>() {};
+
+    private final SettingsService settings;
+    private final SignatureVersionService versions;
+    private final VerdictCacheRepository repo;
+    private final ObjectMapper mapper;
+
+    private final Map<String, ScanResult> memory;
+    private final Map<String, CompletableFuture<ScanResult>> inFlight = new ConcurrentHashMap<>();
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter coalesced;
+
+    public VerdictCacheService(SettingsService settings,
+                               SignatureVersionService versions,
+                               VerdictCacheRepository repo,
+                               ObjectMapper mapper,
+                               MeterRegistry meterRegistry) {
+        this.settings = settings;
+        this.versions = versions;
+        this.repo = repo;
+        this.mapper = mapper;
+        this.memory = Collections.synchronizedMap(new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ScanResult> eldest) {
+                return size() > settings.cacheMaxEntries();
+            }
+        });
+        this.hits = Counter.builder("clamav.verdict.cache").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("clamav.verdict.cache").tag("result", "miss").register(meterRegistry);
+        this.coalesced = Counter.builder("clamav.verdict.cache").tag("result", "coalesced").register(meterRegistry);
+        Gauge.builder("clamav.verdict.cache.size", memory, Map::size).register(meterRegistry);
+    }
+
+    /**
+     * Return the cached verdict for this content, wait for an identical scan already in flight,
+     * or run the scan and remember its verdict.
+     */
+    public ScanResult scanOnce(String sha256, ClamdEndpoint endpoint, Callable<ScanResult> scan) throws Exception {
+        String version = (settings.cacheEnabled() && sha256 != null) ? versions.current(endpoint) : null;
+        if (version == null) {
+            return scan.call();
+        }
+        String key = VerdictCacheEntry.key(sha256, version);
+
+        ScanResult cached = lookup(key);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+
+        CompletableFuture<ScanResult> mine = new CompletableFuture<>();
+        CompletableFuture<ScanResult> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            coalesced.increment();
+            try {
+                return running.get();
+            } catch (ExecutionException e) {
+                // The leading scan failed; scan this copy on its own.
+                log.debug("Coalesced scan for {} failed, rescanning: {}", sha256, e.getCause().getMessage());
+                return scan.call();
+            }
+        }
+
+        misses.increment();
+        try {
+            ScanResult result = scan.call();
+            store(sha256, version, result);
+            mine.complete(result);
+            return result;
+        } catch (Exception e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    /**
+     * Remember a verdict obtained outside scanOnce() (e.g. an inline streaming scan).
+     */
+    public void record(String sha256, ClamdEndpoint endpoint, ScanResult result) {
+        if (!settings.cacheEnabled() || sha256 == null) return;
+        String version = versions.current(endpoint);
+        if (version != null) store(sha256, version, result);
+    }
+
+    @Scheduled(fixedDelay = 6 * 60 * 60 * 1000L, initialDelay = 10 * 60 * 1000L)
+    public void purgeExpired() {
+        try {
+            int n = repo.deleteOlderThan(Instant.now().minus(Duration.ofDays(settings.cacheTtlDays())));
+            if (n > 0) log.info("Purged {} expired verdict cache entries", n);
+        } catch (Exception e) {
+            log.warn("Verdict cache purge failed: {}", e.getMessage());
+        }
+    }
+
+    private ScanResult lookup(String key) {
+        ScanResult r = memory.get(key);
+        if (r != null) return r;
+        try {
+            Optional<VerdictCacheEntry> e = repo.findById(key);
+            if (e.isEmpty()) return null;
+            if (e.get().getCreatedAt().isBefore(Instant.now().minus(Duration.ofDays(settings.cacheTtlDays())))) return null;
+            r = toResult(e.get());
+            if (r != null) memory.put(key, r);
+            return r;
+        } catch (Exception ex) {
+            log.debug("Verdict cache lookup failed: {}", ex.getMessage());
+            return null;
+        }
+    }
+
+    private void store(String sha256, String version, ScanResult result) {
+        String json = null;
+        ScanVerdict verdict;
+        if (result instanceof ScanResult.OK) {
+            verdict = ScanVerdict.OK;
+        } else if (result instanceof ScanResult.VirusFound vf) {
+            verdict = ScanVerdict.VIRUS_FOUND;
+            try {
+                json = mapper.writeValueAsString(vf.getFoundViruses());
+            } catch (Exception e) {
+                return;
+            }
+        } else {
+            return;
+        }
+        memory.put(VerdictCacheEntry.key(sha256, version), result);
+        try {
+            repo.save(new VerdictCacheEntry(sha256, version, verdict, json));
+        } catch (Exception e) {
+            // Concurrent insert of the same key, or DB hiccup: the memory tier still has it.
+            log.debug("Verdict cache store failed: {}", e.getMessage());
+        }
+    }
+
+    private ScanResult toResult(VerdictCacheEntry e) throws Exception {
+        if (e.getVerdict() == ScanVerdict.OK) return ScanResult.OK.INSTANCE;
+        if (e.getVerdict() == ScanVerdict.VIRUS_FOUND && e.getFoundVirusesJson() != null) {
+            return new ScanResult.VirusFound(mapper.readValue(e.getFoundVirusesJson(), FOUND_TYPE));
+        }
+        return null;
+    }
+}
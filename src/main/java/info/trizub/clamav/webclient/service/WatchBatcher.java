@@ -0,0 +1,113 @@
+package info.trizub.clamav.webclient.service;
+
+import info.trizub.clamav.webclient.model.WatchedDirectory;
+import info.trizub.clamav.webclient.service.ProcessedFileStore.FileState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Watcher batch mode (app.watch.batch.enabled): changed files are collected per watched directory
+ * and submitted as one BATCH job when the batch is app.watch.batch.windowSeconds old or holds
+ * app.watch.batch.maxFiles files.
+ *
+ * Files are recorded in processed_files only when their batch job is created, so changes still
+ * waiting here at shutdown (or when the queue is full) are detected again by the next sweep.
+ */
+@Service
+public class WatchBatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(WatchBatcher.class);
+
+    private final SettingsService settings;
+    private final ScanJobService scanJobService;
+    private final ProcessedFileStore processedFiles;
+
+    private static final class Batch {
+        final WatchedDirectory wd;
+        final long openedAtMs = System.currentTimeMillis();
+        final LinkedHashMap<String, FileState> files = new LinkedHashMap<>();
+
+        Batch(WatchedDirectory wd) {
+            this.wd = wd;
+        }
+    }
+
+    private final Map<Long, Batch> open = new HashMap<>();
+
+    public WatchBatcher(SettingsService settings, ScanJobService scanJobService, ProcessedFileStore processedFiles) {
+        this.settings = settings;
+        this.scanJobService = scanJobService;
+        this.processedFiles = processedFiles;
+    }
+
+    /**
+     * Add changed files of wd to its open batch. A file seen again before the batch is submitted
+     * is kept once, with its latest state.
+     */
+    public void add(WatchedDirectory wd, List<FileState> changed) {
+        if (changed.isEmpty()) return;
+        int max = Math.max(1, settings.watchBatchMaxFiles());
+        List<Batch> full = new ArrayList<>();
+        synchronized (this) {
+            for (FileState f : changed) {
+                Batch b = open.computeIfAbsent(wd.getId(), id -> new Batch(wd));
+                b.files.put(f.path(), f);
+                if (b.files.size() >= max) {
+                    open.remove(wd.getId());
+                    full.add(b);
+                }
+            }
+        }
+        full.forEach(this::submit);
+    }
+
+    @Scheduled(fixedDelay = 1000)
+    public void flushDue() {
+        long cutoff = System.currentTimeMillis() - Math.max(0, settings.watchBatchWindowSeconds()) * 1000L;
+        List<Batch> due = new ArrayList<>();
+        synchronized (this) {
+            open.values().removeIf(b -> {
+                if (b.openedAtMs > cutoff) return false;
+                due.add(b);
+                return true;
+            });
+        }
+        due.forEach(this::submit);
+    }
+
+    private void submit(Batch b) {
+        List<FileState> files = new ArrayList<>(b.files.values());
+        try {
+            scanJobService.createBatchJob(b.wd.getPath(), files.stream().map(f -> Path.of(f.path())).toList(),
+                    b.wd.getEndpoint(), "watcher");
+        } catch (QueueFullException e) {
+            log.debug("Scan queue full, batch of {} files for {} retried later", files.size(), b.wd.getPath());
+            requeue(b);
+            return;
+        } catch (Exception e) {
+            log.warn("Batch job for {} ({} files) not created: {}", b.wd.getPath(), files.size(), e.getMessage());
+            return;
+        }
+        try {
+            processedFiles.upsert(files);
+        } catch (Exception e) {
+            // The batch is queued; without the rows these files are only queued again by the next sweep.
+            log.warn("Failed to record {} batched files for {}: {}", files.size(), b.wd.getPath(), e.getMessage());
+        }
+    }
+
+    private synchronized void requeue(Batch b) {
+        Batch current = open.get(b.wd.getId());
+        if (current == null) {
+            open.put(b.wd.getId(), b);
+        } else {
+            // Newer states added meanwhile win.
+            b.files.forEach(current.files::putIfAbsent);
+        }
+    }
+}
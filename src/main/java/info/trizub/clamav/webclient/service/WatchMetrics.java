@@ -0,0 +1,63 @@
+package info.trizub.clamav.webclient.service;
+
+import info.trizub.clamav.webclient.model.WatchedDirectory;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watcher meters, tagged with the watched directory:
+ * <ul>
+ *   <li>clamav.watch.walk – duration of each sweep slice</li>
+ *   <li>clamav.watch.walk.age – seconds since the directory's last sweep slice finished</li>
+ *   <li>clamav.watch.files{result} – visited, unchanged, queued (batch mode: added to a batch),
+ *       moved, held, skipped (rules, markers), vanished, error</li>
+ *   <li>clamav.watch.enqueue.lag – time from a file's mtime to its scan being queued</li>
+ * </ul>
+ */
+final class WatchMetrics {
+
+    private final MeterRegistry registry;
+    private final Map<String, Long> walkedAtMs = new ConcurrentHashMap<>();
+
+    WatchMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    void count(WatchedDirectory wd, String result, long n) {
+        if (n <= 0) return;
+        Counter.builder("clamav.watch.files")
+                .tag("dir", wd.getPath())
+                .tag("result", result)
+                .register(registry)
+                .increment(n);
+    }
+
+    void walked(WatchedDirectory wd, long nanos) {
+        Timer.builder("clamav.watch.walk")
+                .tag("dir", wd.getPath())
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+        if (walkedAtMs.put(wd.getPath(), System.currentTimeMillis()) == null) {
+            Gauge.builder("clamav.watch.walk.age", walkedAtMs,
+                            m -> (System.currentTimeMillis() - m.getOrDefault(wd.getPath(), System.currentTimeMillis())) / 1000d)
+                    .tag("dir", wd.getPath())
+                    .baseUnit("seconds")
+                    .register(registry);
+        }
+    }
+
+    void queued(WatchedDirectory wd, long lastModifiedMs) {
+        Timer.builder("clamav.watch.enqueue.lag")
+                .tag("dir", wd.getPath())
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(registry)
+                .record(Duration.ofMillis(Math.max(0, System.currentTimeMillis() - lastModifiedMs)));
+    }
+}
@@ -0,0 +1,126 @@
+package info.trizub.clamav.webclient.service;
+
+import info.trizub.clamav.webclient.model.WatchedDirectory;
+import info.trizub.clamav.webclient.util.ResumableTreeWalk;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The include/exclude globs, max file size and max depth of one watched directory, compiled once.
+ *
+ * A glob without '/' matches the file or directory name at any depth ("node_modules", "*.iso");
+ * one with '/' matches the path relative to the root ("build/cache/**"). Excludes apply to files
+ * and directories, and an excluded directory is pruned with everything below it; a trailing "/**"
+ * also excludes the directory itself. Includes only select files: directories are always entered
+ * (within maxDepth). maxDepth counts directory levels below the root (0 = only the root's files).
+ */
+final class WatchRules implements ResumableTreeWalk.Filter {
+
+    private static final Logger log = LoggerFactory.getLogger(WatchRules.class);
+
+    private record Glob(PathMatcher matcher, boolean nameOnly) {
+        boolean matches(Path relative) {
+            Path target = nameOnly ? relative.getFileName() : relative;
+            return target != null && matcher.matches(target);
+        }
+    }
+
+    private final Path root;
+    private final List<Glob> include;
+    private final List<Glob> exclude;
+    private final long maxFileSize;
+    private final int maxDepth;
+
+    // Source values, to tell whether a reloaded WatchedDirectory still matches this compilation.
+    private final String includeSrc;
+    private final String excludeSrc;
+    private final Long maxFileSizeSrc;
+    private final Integer maxDepthSrc;
+
+    private WatchRules(Path root, WatchedDirectory wd) {
+        this.root = root;
+        this.includeSrc = wd.getIncludeGlobs();
+        this.excludeSrc = wd.getExcludeGlobs();
+        this.maxFileSizeSrc = wd.getMaxFileSizeBytes();
+        this.maxDepthSrc = wd.getMaxDepth();
+        this.include = compile(includeSrc, false, wd);
+        this.exclude = compile(excludeSrc, true, wd);
+        this.maxFileSize = maxFileSizeSrc == null || maxFileSizeSrc <= 0 ? Long.MAX_VALUE : maxFileSizeSrc;
+        this.maxDepth = maxDepthSrc == null || maxDepthSrc < 0 ? Integer.MAX_VALUE : maxDepthSrc;
+    }
+
+    static WatchRules of(Path root, WatchedDirectory wd) {
+        return new WatchRules(root, wd);
+    }
+
+    boolean sameAs(Path root, WatchedDirectory wd) {
+        return this.root.equals(root)
+                && Objects.equals(includeSrc, wd.getIncludeGlobs())
+                && Objects.equals(excludeSrc, wd.getExcludeGlobs())
+                && Objects.equals(maxFileSizeSrc, wd.getMaxFileSizeBytes())
+                && Objects.equals(maxDepthSrc, wd.getMaxDepth());
+    }
+
+    @Override
+    public boolean accept(Path path) {
+        Path rel = relative(path);
+        return rel == null || !any(exclude, rel);
+    }
+
+    @Override
+    public boolean enter(Path dir) {
+        Path rel = relative(dir);
+        return rel == null || (rel.getNameCount() <= maxDepth && !any(exclude, rel));
+    }
+
+    /**
+     * Whether a file found by a sweep or an event should be scanned.
+     */
+    boolean acceptFile(Path file, long size) {
+        Path rel = relative(file);
+        if (rel == null) return false;
+        if (rel.getNameCount() - 1 > maxDepth || size > maxFileSize || any(exclude, rel)) return false;
+        return include.isEmpty() || any(include, rel);
+    }
+
+    /** Path relative to the root; null for the root itself and for paths outside it. */
+    private Path relative(Path p) {
+        if (!p.startsWith(root)) return null;
+        return p.equals(root) ? null : root.relativize(p);
+    }
+
+    private static boolean any(List<Glob> globs, Path rel) {
+        for (Glob g : globs) {
+            if (g.matches(rel)) return true;
+        }
+        return false;
+    }
+
+    private static List<Glob> compile(String src, boolean exclude, WatchedDirectory wd) {
+        List<Glob> out = new ArrayList<>();
+        if (src == null) return out;
+        for (String raw : src.split("[,\\n]")) {
+            String g = raw.trim();
+            if (g.isEmpty()) continue;
+            try {
+                boolean nameOnly = !g.contains("/");
+                out.add(glob(g, nameOnly));
+                if (exclude && g.endsWith("/**") && g.length() > 3) out.add(glob(g.substring(0, g.length() - 3), nameOnly));
+            } catch (IllegalArgumentException e) {
+                log.warn("Ignoring invalid glob '{}' of watched directory {}: {}", g, wd.getPath(), e.getMessage());
+            }
+        }
+        return out;
+    }
+
+    private static Glob glob(String g, boolean nameOnly) {
+        return new Glob(FileSystems.getDefault().getPathMatcher("glob:" + g), nameOnly);
+    }
+}
@@ -1,99 +1,638 @@
 package info.trizub.clamav.webclient.service;
 
-import info.trizub.clamav.webclient.model.ProcessedFile;
 import info.trizub.clamav.webclient.model.WatchedDirectory;
-import info.trizub.clamav.webclient.repo.ProcessedFileRepository;
 import info.trizub.clamav.webclient.repo.WatchedDirectoryRepository;
+import info.trizub.clamav.webclient.service.ProcessedFileStore.FileState;
+import info.trizub.clamav.webclient.service.ProcessedFileStore.Move;
+import info.trizub.clamav.webclient.util.HashUtils;
 import info.trizub.clamav.webclient.util.PathPolicy;
+import info.trizub.clamav.webclient.util.ResumableTreeWalk;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.*;
-import java.util.List;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.stream.Stream;
 
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Queues WATCH jobs for new and changed files under the enabled watched directories.
+ *
+ * app.watch.mode=poll sweeps every tree each app.watch.pollSeconds. app.watch.mode=events registers
+ * the directories with a WatchService and queues scans from create/modify events; a full sweep
+ * then only starts every app.watch.reconcileMinutes (or right after an event overflow) to catch
+ * what the notifications missed.
+ *
+ * A sweep is incremental: each poll walks at most app.watch.sweepMaxFiles files or
+ * app.watch.sweepMaxSeconds per directory, stores a cursor and continues from it on the next poll,
+ * so trees of any size and depth are covered eventually.
+ *
+ * With app.watch.quietSeconds > 0, changed files pass a StabilityGate first and are only
+ * queued once they stop changing (or their app.watch.stableMarkerSuffix sidecar appears).
+ *
+ * Directories are swept in parallel on a ForkJoinPool of app.watch.crawlParallelism threads; a
+ * directory still busy from an earlier poll does not hold up the others, and idle threads steal
+ * subdirectory listings of the large ones (see ResumableTreeWalk).
+ *
+ * Per-directory throughput and lag are exported as Micrometer meters (see WatchMetrics).
+ *
+ * Each directory can narrow what is watched (WatchRules: include/exclude globs, max file size,
+ * max depth) and override app.watch.pollSeconds. Excluded subtrees are pruned from sweeps and
+ * from event registration.
+ *
+ * A new path whose file key, size and mtime match a processed file that no longer exists at its
+ * old path is a move: the processed row is re-pointed instead of queueing a scan
+ * (app.watch.moveDetection).
+ */
 @Service
 public class WatcherService {
 
     private static final Logger log = LoggerFactory.getLogger(WatcherService.class);
 
+    /** Events mode: files queued at once from a newly created directory; a sweep finds the rest. */
+    private static final int NEW_DIR_FILE_LIMIT = 1000;
+
     private final SettingsService settings;
     private final WatchedDirectoryRepository watchRepo;
-    private final ProcessedFileRepository processedRepo;
+    private final ProcessedFileStore processedFiles;
     private final ScanJobService scanJobService;
+    private final WatchBatcher batcher;
 
+    /** No directory is swept again within its interval after this (set by stop()). */
     private final AtomicLong lastRunMs = new AtomicLong(0);
+    private final Map<Long, Long> lastRunByDir = new ConcurrentHashMap<>();
+    private final Map<Long, WatchRules> rules = new ConcurrentHashMap<>();
+
+    private ForkJoinPool crawlPool;
+    private final Set<Long> crawling = ConcurrentHashMap.newKeySet();
+    private final StabilityGate stability = new StabilityGate();
+    private final WatchMetrics metrics;
+
+    // Events mode state. The maps are only changed under this monitor or by the event thread.
+    private WatchService watchService;
+    private Thread eventThread;
+    private final Map<WatchKey, Registration> keys = new ConcurrentHashMap<>();
+    private final Map<Long, WatchedDirectory> watched = new ConcurrentHashMap<>();
+
+    private record Registration(Long watchId, Path root, Path dir) {}
 
     public WatcherService(SettingsService settings,
                           WatchedDirectoryRepository watchRepo,
-                          ProcessedFileRepository processedRepo,
-                          ScanJobService scanJobService) {
+                          ProcessedFileStore processedFiles,
+                          ScanJobService scanJobService,
+                          WatchBatcher batcher,
+                          MeterRegistry meterRegistry) {
         this.settings = settings;
         this.watchRepo = watchRepo;
-        this.processedRepo = processedRepo;
+        this.processedFiles = processedFiles;
         this.scanJobService = scanJobService;
+        this.batcher = batcher;
+        this.metrics = new WatchMetrics(meterRegistry);
     }
 
-    @Scheduled(fixedDelay = 30000)
+    @Scheduled(fixedDelay = 5000)
     public void poll() {
-        if (!settings.watchEnabled()) return;
-
-        long now = System.currentTimeMillis();
-        long interval = settings.watchPollSeconds() * 1000L;
-        long last = lastRunMs.get();
-        if (now - last < interval) return;
-        if (!lastRunMs.compareAndSet(last, now)) return;
+        if (!settings.watchEnabled()) {
+            stopEvents();
+            return;
+        }
+        boolean events = settings.watchEventMode() && syncRegistrations();
+        if (!events) stopEvents();
 
         List<WatchedDirectory> dirs = watchRepo.findByEnabledTrue();
+        Set<Long> ids = new HashSet<>();
+        dirs.forEach(d -> ids.add(d.getId()));
+        lastRunByDir.keySet().retainAll(ids);
+        if (!events) rules.keySet().retainAll(ids);
         if (dirs.isEmpty()) return;
 
+        long now = System.currentTimeMillis();
+        long floor = lastRunMs.get();
+        ForkJoinPool pool = null;
         for (WatchedDirectory wd : dirs) {
+            // A started sweep continues every poll interval, also in events mode.
+            boolean sweeping = wd.getCrawlCursor() != null;
+            long interval = events && !sweeping ? settings.watchReconcileMinutes() * 60_000L : pollSeconds(wd) * 1000L;
+            long last = Math.max(floor, lastRunByDir.getOrDefault(wd.getId(), 0L));
+            if (now - last < interval) continue;
+            if (!crawling.add(wd.getId())) {
+                log.debug("Watch directory {} still being crawled, skipped this poll", wd.getPath());
+                continue;
+            }
+            lastRunByDir.put(wd.getId(), now);
+            if (pool == null) pool = crawlPool();
+            pool.execute(() -> {
+                try {
+                    crawl(wd);
+                } finally {
+                    crawling.remove(wd.getId());
+                }
+            });
+        }
+    }
+
+    private int pollSeconds(WatchedDirectory wd) {
+        Integer own = wd.getPollSeconds();
+        return own != null && own > 0 ? own : settings.watchPollSeconds();
+    }
+
+    /**
+     * wd's compiled rules, recompiled only when its rule columns changed.
+     */
+    private WatchRules rules(WatchedDirectory wd) {
+        Path root = PathPolicy.normalize(wd.getPath());
+        return rules.compute(wd.getId(), (id, r) -> r != null && r.sameAs(root, wd) ? r : WatchRules.of(root, wd));
+    }
+
+    private void crawl(WatchedDirectory wd) {
+        try {
+            Path root = allowedRoot(wd);
+            if (root == null) return;
+            sweep(wd, root);
+        } catch (QueueFullException e) {
+            log.info("Scan queue full, sweep of {} stopped early; it continues next poll", wd.getPath());
+        } catch (Exception e) {
+            metrics.count(wd, "error", 1);
+            log.warn("Watch sweep of {} failed: {}", wd.getPath(), e.getMessage());
+        }
+    }
+
+    /**
+     * The crawl pool, rebuilt when app.watch.crawlParallelism changes (running sweeps finish on the old one).
+     */
+    private synchronized ForkJoinPool crawlPool() {
+        int parallelism = Math.max(1, settings.watchCrawlParallelism());
+        if (crawlPool == null || crawlPool.getParallelism() != parallelism) {
+            if (crawlPool != null) crawlPool.shutdown();
+            crawlPool = new ForkJoinPool(parallelism, pool -> {
+                ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                t.setName("watch-crawl-" + t.getPoolIndex());
+                return t;
+            }, null, false);
+        }
+        return crawlPool;
+    }
+
+    /**
+     * Walk the next slice of wd's tree within the sweep budget and save where it stopped. If the
+     * queue fills up the cursor stays put: the slice is walked again and already queued files are
+     * skipped as unchanged.
+     */
+    private void sweep(WatchedDirectory wd, Path root) throws IOException {
+        long t0 = System.currentTimeMillis();
+        long maxFiles = Math.max(1, settings.watchSweepMaxFiles());
+        long deadline = t0 + Math.max(1, settings.watchSweepMaxSeconds()) * 1000L;
+        List<Path> batch = new ArrayList<>();
+        long[] visited = {0};
+
+        WatchRules r = rules(wd);
+        String cursor = ResumableTreeWalk.walk(root, wd.getCrawlCursor(), r, (file, attrs) -> {
+            if (!r.acceptFile(file, attrs.size())) {
+                metrics.count(wd, "skipped", 1);
+                return true;
+            }
+            batch.add(file);
+            visited[0]++;
+            if (batch.size() >= ProcessedFileStore.BATCH_SIZE) {
+                check(batch, wd);
+                batch.clear();
+            }
+            return visited[0] < maxFiles && System.currentTimeMillis() < deadline;
+        });
+        check(batch, wd);
+        metrics.walked(wd, (System.currentTimeMillis() - t0) * 1_000_000L);
+
+        Instant startedAt = wd.getSweepStartedAt() != null ? wd.getSweepStartedAt() : Instant.ofEpochMilli(t0);
+        long files = wd.getSweepFiles() + visited[0];
+        if (cursor != null) {
+            watchRepo.saveSweepProgress(wd.getId(), cursor, startedAt, files);
+            log.debug("Watch sweep of {}: {} files so far, continuing after {}", root, files, cursor);
+        } else {
+            Instant now = Instant.now();
+            long durationMs = now.toEpochMilli() - startedAt.toEpochMilli();
+            watchRepo.completeSweep(wd.getId(), files, durationMs, now);
+            log.info("Watch sweep of {} complete: {} files in {} ms", root, files, durationMs);
+        }
+    }
+
+    /**
+     * Sweep state of every watched directory. coverage is the share of the previous sweep's file
+     * count reached by the running sweep (null before the first sweep completes).
+     */
+    public List<Map<String, Object>> status() {
+        List<Map<String, Object>> out = new ArrayList<>();
+        for (WatchedDirectory wd : watchRepo.findAll()) {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("id", wd.getId());
+            m.put("path", wd.getPath());
+            m.put("enabled", wd.isEnabled());
+            m.put("includeGlobs", wd.getIncludeGlobs());
+            m.put("excludeGlobs", wd.getExcludeGlobs());
+            m.put("maxFileSizeBytes", wd.getMaxFileSizeBytes());
+            m.put("maxDepth", wd.getMaxDepth());
+            m.put("pollSeconds", pollSeconds(wd));
+            m.put("sweeping", wd.getCrawlCursor() != null);
+            m.put("sweepStartedAt", wd.getSweepStartedAt());
+            m.put("sweepFiles", wd.getSweepFiles());
+            m.put("cursor", wd.getCrawlCursor());
+            Long lastFiles = wd.getLastSweepFiles();
+            m.put("coverage", lastFiles == null || lastFiles == 0 ? null
+                    : wd.getCrawlCursor() == null ? 1.0 : Math.min(1.0, Math.round(wd.getSweepFiles() * 1000d / lastFiles) / 1000d));
+            m.put("lastSweepFiles", lastFiles);
+            m.put("lastSweepDurationMs", wd.getLastSweepDurationMs());
+            m.put("lastSweepCompletedAt", wd.getLastSweepCompletedAt());
+            m.put("heldUntilStable", stability.heldCount(wd.getId()));
+            m.put("eventsRegistered", keys.values().stream().filter(r -> r.watchId().equals(wd.getId())).count());
+            out.add(m);
+        }
+        return out;
+    }
+
+    private Path allowedRoot(WatchedDirectory wd) {
+        Path root = PathPolicy.normalize(wd.getPath());
+        if (!Files.isDirectory(root)) return null;
+        if (!PathPolicy.isUnderAllowedRoots(root, settings.allowedRoots())) {
+            log.warn("Watch path not allowed by policy: {}", root);
+            return null;
+        }
+        return root;
+    }
+
+    /**
+     * Queue scans for the files that are new or whose mtime/size changed since they were last
+     * queued. Known state is loaded for the whole batch at once and only queued files are written
+     * back, so an unchanged tree costs one query per batch. With a quiet period the changed files
+     * wait in the stability gate instead. QueueFullException propagates after the files queued so
+     * far are recorded; other per-file errors (vanished, unreadable) skip the file.
+     */
+    private void check(List<Path> files, WatchedDirectory wd) {
+        String marker = settings.watchStableMarkerSuffix();
+        WatchRules r = rules(wd);
+        List<FileState> seen = new ArrayList<>(files.size());
+        long skipped = 0, vanished = 0, errors = 0;
+        for (Path p : files) {
             try {
-                Path root = PathPolicy.normalize(wd.getPath());
-                if (!Files.isDirectory(root)) continue;
-                if (!PathPolicy.isUnderAllowedRoots(root, settings.allowedRoots())) {
-                    log.warn("Watch path not allowed by policy: {}", root);
+                FileState f = FileState.read(p);
+                if (StabilityGate.isMarker(f.path(), marker) || !r.acceptFile(Path.of(f.path()), f.sizeBytes())) {
+                    skipped++;
                     continue;
                 }
+                seen.add(f);
+            } catch (NoSuchFileException e) {
+                vanished++;
+            } catch (Exception e) {
+                errors++;
+                log.debug("Watcher cannot read {}: {}", p, e.toString());
+            }
+        }
+        metrics.count(wd, "visited", files.size());
+        metrics.count(wd, "skipped", skipped);
+        metrics.count(wd, "vanished", vanished);
+        metrics.count(wd, "error", errors);
 
-                try (Stream<Path> stream = Files.walk(root, 5)) {
-                    stream
-                        .filter(Files::isRegularFile)
-                        .limit(1000)
-                        .forEach(p -> {
-                            try {
-                                long lm = Files.getLastModifiedTime(p).toMillis();
-                                long sz = Files.size(p);
-                                var existing = processedRepo.findByPath(p.toAbsolutePath().normalize().toString());
-                                if (existing.isPresent()) {
-                                    ProcessedFile pf = existing.get();
-                                    if (pf.getLastModified() == lm && pf.getSizeBytes() == sz) return;
-                                    pf.setLastModified(lm);
-                                    pf.setSizeBytes(sz);
-                                    processedRepo.save(pf);
-                                } else {
-                                    processedRepo.save(new ProcessedFile(p.toAbsolutePath().normalize().toString(), lm, sz, null));
-                                }
-                                scanJobService.createWatchFileJob(p, wd.getEndpoint(), "watcher");
-                            } catch (Exception ignored) {}
-                        });
+        List<FileState> changed = changedOnly(wd, seen);
+        if (settings.watchQuietSeconds() > 0) {
+            int offered = changed.size();
+            changed = stability.offer(wd, changed, marker);
+            metrics.count(wd, "held", offered - changed.size());
+        }
+        queue(wd, changed);
+    }
+
+    /**
+     * Files that are new or changed since they were last queued, minus the ones that turn out to
+     * be moves of processed files (those rows are re-pointed here). Rows from before file keys
+     * were recorded get the key filled in, so their files can be recognised when they move.
+     */
+    private List<FileState> changedOnly(WatchedDirectory wd, List<FileState> states) {
+        if (states.isEmpty()) return states;
+        Map<String, FileState> known = processedFiles.load(states.stream().map(FileState::path).toList());
+        List<FileState> changed = new ArrayList<>();
+        List<FileState> backfill = new ArrayList<>();
+        for (FileState f : states) {
+            FileState k = known.get(f.path());
+            if (!f.sameAs(k)) changed.add(f);
+            else if (k.fileKey() == null && f.fileKey() != null) backfill.add(f.withSha256(k.sha256()));
+        }
+        processedFiles.upsert(backfill);
+        metrics.count(wd, "unchanged", states.size() - changed.size());
+        return withoutMoves(wd, changed, known);
+    }
+
+    private List<FileState> withoutMoves(WatchedDirectory wd, List<FileState> changed, Map<String, FileState> known) {
+        String mode = settings.watchMoveDetection();
+        if (mode.equals("off") || changed.isEmpty()) return changed;
+        Set<String> keys = new HashSet<>();
+        for (FileState f : changed) {
+            FileState k = known.get(f.path());
+            if (f.fileKey() != null && (k == null || !f.fileKey().equals(k.fileKey()))) keys.add(f.fileKey());
+        }
+        if (keys.isEmpty()) return changed;
+        Map<String, FileState> byKey = processedFiles.loadByFileKeys(keys);
+
+        List<FileState> rest = new ArrayList<>();
+        List<Move> moves = new ArrayList<>();
+        Set<String> movedFrom = new HashSet<>();
+        for (FileState f : changed) {
+            FileState old = keys.contains(f.fileKey()) ? byKey.get(f.fileKey()) : null;
+            if (old == null || old.path().equals(f.path()) || !f.sameAs(old) || movedFrom.contains(old.path())
+                    || !Files.notExists(Path.of(old.path()), LinkOption.NOFOLLOW_LINKS)) {
+                rest.add(f);
+                continue;
+            }
+            if (mode.equals("hash")) {
+                String sha = sha256(f.path());
+                if (old.sha256() == null || !old.sha256().equals(sha)) {
+                    rest.add(f.withSha256(sha));
+                    continue;
                 }
+            }
+            movedFrom.add(old.path());
+            moves.add(new Move(old.path(), f.path()));
+        }
+        if (!moves.isEmpty()) {
+            processedFiles.repoint(moves);
+            metrics.count(wd, "moved", moves.size());
+            log.debug("Watcher re-pointed {} moved files instead of rescanning them", moves.size());
+        }
+        return rest;
+    }
+
+    private static String sha256(String path) {
+        try (InputStream in = Files.newInputStream(Path.of(path))) {
+            return HashUtils.sha256(in);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Release held files that have stopped changing.
+     */
+    @Scheduled(fixedDelay = 1000)
+    public void releaseStable() {
+        if (!settings.watchEnabled()) {
+            stability.clear();
+            return;
+        }
+        List<StabilityGate.Held> due = stability.due(settings.watchQuietSeconds() * 1000L, settings.watchStableMarkerSuffix());
+        Map<Long, List<StabilityGate.Held>> byDir = new LinkedHashMap<>();
+        for (StabilityGate.Held h : due) byDir.computeIfAbsent(h.wd().getId(), id -> new ArrayList<>()).add(h);
+        for (List<StabilityGate.Held> group : byDir.values()) {
+            WatchedDirectory wd = group.get(0).wd();
+            List<FileState> states = group.stream().map(StabilityGate.Held::state).toList();
+            try {
+                queue(wd, changedOnly(wd, states));
+            } catch (QueueFullException e) {
+                // Held again; files queued before the queue filled are recorded and dropped by changedOnly next time.
+                stability.offer(wd, states, null);
+                log.debug("Scan queue full, {} stable files for {} held again", states.size(), wd.getPath());
             } catch (Exception e) {
                 log.warn("Watcher error: {}", e.getMessage());
             }
         }
     }
 
-    
+    /**
+     * Queue scans for changed files (per file, or through the batcher in batch mode) and record
+     * the queued ones as processed. QueueFullException propagates after the files queued so far
+     * are recorded.
+     */
+    private void queue(WatchedDirectory wd, List<FileState> changed) {
+        if (changed.isEmpty()) return;
+        if (settings.watchMoveDetection().equals("hash")) {
+            // Recorded with the row so a later move can be confirmed by content.
+            changed = changed.stream().map(f -> f.sha256() != null ? f : f.withSha256(sha256(f.path()))).toList();
+        }
+        if (settings.watchBatchEnabled()) {
+            // The batcher records the files once their batch job exists.
+            batcher.add(wd, changed);
+            metrics.count(wd, "queued", changed.size());
+            changed.forEach(f -> metrics.queued(wd, f.lastModified()));
+            return;
+        }
+        List<FileState> queued = new ArrayList<>();
+        try {
+            for (FileState f : changed) {
+                try {
+                    // Queue first: if the queue is full the file must stay "changed" for the next poll.
+                    scanJobService.createWatchFileJob(Path.of(f.path()), wd.getEndpoint(), "watcher");
+                    queued.add(f);
+                    metrics.queued(wd, f.lastModified());
+                } catch (QueueFullException e) {
+                    throw e;
+                } catch (Exception e) {
+                    metrics.count(wd, "error", 1);
+                    log.warn("Watch job for {} not created: {}", f.path(), e.getMessage());
+                }
+            }
+        } finally {
+            metrics.count(wd, "queued", queued.size());
+            // Jobs may already be done; upsert keeps a clean verdict recorded after the file's mtime.
+            processedFiles.upsert(queued);
+        }
+    }
+
+    // ---------------------------------------------------------------- events mode
+
+    /**
+     * Bring the WatchService in line with the enabled watched directories: register new roots,
+     * cancel keys of removed or disabled ones. Runs on every scheduled tick in events mode.
+     * Returns false if the platform has no WatchService, in which case the watcher keeps polling.
+     */
+    private synchronized boolean syncRegistrations() {
+        try {
+            if (watchService == null) {
+                watchService = FileSystems.getDefault().newWatchService();
+                eventThread = Thread.ofPlatform().daemon().name("watch-events").start(this::eventLoop);
+                log.info("Watcher switched to file system events (reconciliation every {} min)", settings.watchReconcileMinutes());
+            }
+        } catch (IOException e) {
+            log.warn("File system events unavailable ({}), watcher keeps polling", e.getMessage());
+            return false;
+        }
+
+        Map<Long, WatchedDirectory> current = new HashMap<>();
+        for (WatchedDirectory wd : watchRepo.findByEnabledTrue()) {
+            if (allowedRoot(wd) != null) current.put(wd.getId(), wd);
+        }
+        keys.entrySet().removeIf(e -> {
+            if (current.containsKey(e.getValue().watchId())) return false;
+            e.getKey().cancel();
+            return true;
+        });
+        watched.keySet().retainAll(current.keySet());
+        rules.keySet().retainAll(current.keySet());
+        for (WatchedDirectory wd : current.values()) {
+            boolean known = watched.containsKey(wd.getId());
+            WatchRules before = rules.get(wd.getId());
+            watched.put(wd.getId(), wd);
+            if (known && before != rules(wd)) {
+                // Rules changed: registrations may now be pruned or missing, start over.
+                keys.entrySet().removeIf(e -> {
+                    if (!e.getValue().watchId().equals(wd.getId())) return false;
+                    e.getKey().cancel();
+                    return true;
+                });
+                known = false;
+            }
+            if (!known) registerTree(wd.getId(), PathPolicy.normalize(wd.getPath()), PathPolicy.normalize(wd.getPath()));
+        }
+        return true;
+    }
+
+    private synchronized void stopEvents() {
+        if (watchService == null) return;
+        try {
+            watchService.close();
+        } catch (IOException ignored) {}
+        if (eventThread != null) eventThread.interrupt();
+        watchService = null;
+        eventThread = null;
+        keys.clear();
+        watched.clear();
+        log.info("Watcher file system events stopped");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        stopEvents();
+        synchronized (this) {
+            if (crawlPool != null) crawlPool.shutdownNow();
+        }
+    }
+
+    /**
+     * Register dir and all its subdirectories not pruned by the watch rules. Returns false if
+     * nothing was registered or registration stopped early, e.g. at the inotify watch limit; the
+     * reconciliation sweep still covers the rest.
+     */
+    private boolean registerTree(Long watchId, Path root, Path dir) {
+        WatchService ws = watchService;
+        WatchedDirectory wd = watched.get(watchId);
+        if (ws == null || wd == null) return false;
+        WatchRules r = rules(wd);
+        if (!r.enter(dir)) return false;
+        try {
+            Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) throws IOException {
+                    if (!r.enter(d)) return FileVisitResult.SKIP_SUBTREE;
+                    keys.put(d.register(ws, ENTRY_CREATE, ENTRY_MODIFY), new Registration(watchId, root, d));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            return true;
+        } catch (ClosedWatchServiceException e) {
+            return false;
+        } catch (IOException e) {
+            log.warn("Watch registration under {} incomplete: {}", dir, e.getMessage());
+            return false;
+        }
+    }
+
+    private void eventLoop() {
+        // path -> watched directory id; insertion order keeps scans roughly in event order
+        Map<Path, Long> pending = new LinkedHashMap<>();
+        while (!Thread.currentThread().isInterrupted()) {
+            WatchService ws = watchService;
+            if (ws == null) return;
+            try {
+                WatchKey key = ws.poll(1, TimeUnit.SECONDS);
+                while (key != null) {
+                    collect(key, pending);
+                    key = pending.size() >= NEW_DIR_FILE_LIMIT ? null : ws.poll();
+                }
+                drain(pending);
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            } catch (Exception e) {
+                log.warn("Watcher event error: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void collect(WatchKey key, Map<Path, Long> pending) {
+        Registration reg = keys.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (reg == null) continue;
+            if (event.kind() == OVERFLOW) {
+                log.info("Watch events overflowed under {}, scheduling a reconciliation walk", reg.dir());
+                lastRunByDir.remove(reg.watchId());
+                continue;
+            }
+            Path child = reg.dir().resolve((Path) event.context());
+            if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                // Files created before the new directory was registered produce no events: queue them too.
+                if (event.kind() == ENTRY_CREATE && registerTree(reg.watchId(), reg.root(), child)) {
+                    WatchedDirectory wd = watched.get(reg.watchId());
+                    int[] n = {0};
+                    try {
+                        ResumableTreeWalk.walk(child, null, rules(wd), (p, attrs) -> {
+                            pending.put(p, reg.watchId());
+                            return ++n[0] < NEW_DIR_FILE_LIMIT;
+                        });
+                    } catch (IOException | UncheckedIOException ignored) {}
+                }
+            } else {
+                pending.put(child, reg.watchId());
+            }
+        }
+        if (!key.reset()) keys.remove(key);
+    }
+
+    private void drain(Map<Path, Long> pending) {
+        while (!pending.isEmpty()) {
+            // One batch per watched directory, in event order.
+            Long watchId = pending.values().iterator().next();
+            List<Path> batch = new ArrayList<>();
+            Iterator<Map.Entry<Path, Long>> it = pending.entrySet().iterator();
+            while (it.hasNext() && batch.size() < ProcessedFileStore.BATCH_SIZE) {
+                Map.Entry<Path, Long> e = it.next();
+                if (!e.getValue().equals(watchId)) continue;
+                if (Files.isRegularFile(e.getKey(), LinkOption.NOFOLLOW_LINKS)) batch.add(e.getKey());
+                it.remove();
+            }
+            WatchedDirectory wd = watched.get(watchId);
+            if (wd == null || batch.isEmpty()) continue;
+            try {
+                check(batch, wd);
+            } catch (QueueFullException full) {
+                // Retried on the next loop; files queued before the queue filled are recorded and skipped then.
+                batch.forEach(p -> pending.putIfAbsent(p, watchId));
+                log.debug("Scan queue full, {} watch events deferred", pending.size());
+                return;
+            }
+        }
+    }
+
+
 /**
  * Reset internal timing so the next scheduled poll can run immediately.
  * This does not toggle the persisted setting; it only affects in-process behavior.
  */
 public synchronized void start() {
     lastRunMs.set(0);
+    lastRunByDir.clear();
     log.info("Watcher started (poll loop enabled by settings.watchEnabled=true).");
 }
 
@@ -2,23 +2,35 @@ package info.trizub.clamav.webclient.util;
 
 import java.io.InputStream;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 public class HashUtils {
 
     public static String sha256(InputStream in) {
         try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            MessageDigest digest = newSha256();
             byte[] buf = new byte[8192];
             int r;
             while ((r = in.read(buf)) > 0) {
                 digest.update(buf, 0, r);
             }
-            byte[] hash = digest.digest();
-            StringBuilder sb = new StringBuilder();
-            for (byte b : hash) sb.append(String.format("%02x", b));
-            return sb.toString();
+            return toHex(digest.digest());
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
+
+    public static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String toHex(byte[] hash) {
+        StringBuilder sb = new StringBuilder(hash.length * 2);
+        for (byte b : hash) sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
 }
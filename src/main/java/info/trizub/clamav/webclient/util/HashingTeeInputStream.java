@@ -0,0 +1,118 @@
+package info.trizub.clamav.webclient.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+
+/**
+ * Single-pass ingestion stream: every byte read from the source is copied to a sink
+ * (the stored upload) and fed into a SHA-256 digest, so whoever consumes the stream
+ * (e.g. clamd INSTREAM) drives storing and hashing at the same time.
+ *
+ * Reading more than maxBytes fails with a LimitExceededException so unbounded request bodies
+ * cannot fill the upload directory. The failure is sticky: once the limit is crossed every later
+ * read, drain() and sha256Hex() fails again, so a truncated copy is never mistaken for a whole one.
+ */
+public class HashingTeeInputStream extends FilterInputStream {
+
+    private final OutputStream sink;
+    private final MessageDigest digest;
+    private final long maxBytes;
+    private long count;
+    private boolean exceeded;
+
+    public HashingTeeInputStream(InputStream in, OutputStream sink, long maxBytes) {
+        super(in);
+        this.sink = sink;
+        this.digest = HashUtils.newSha256();
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkLimit();
+        int b = super.read();
+        if (b >= 0) {
+            track(1);
+            sink.write(b);
+            digest.update((byte) b);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buf, int off, int len) throws IOException {
+        checkLimit();
+        int r = super.read(buf, off, len);
+        if (r > 0) {
+            track(r);
+            sink.write(buf, off, r);
+            digest.update(buf, off, r);
+        }
+        return r;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // Skipped bytes would be missing from both the stored copy and the hash.
+        byte[] buf = new byte[(int) Math.min(n, 8192)];
+        long skipped = 0;
+        while (skipped < n) {
+            int r = read(buf, 0, (int) Math.min(buf.length, n - skipped));
+            if (r < 0) break;
+            skipped += r;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Read whatever the consumer left unread, so the stored copy and the hash cover the whole source.
+     */
+    public void drain() throws IOException {
+        byte[] buf = new byte[8192];
+        while (read(buf, 0, buf.length) >= 0) {
+            // copying and hashing happen in read()
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public boolean isLimitExceeded() {
+        return exceeded;
+    }
+
+    /**
+     * Hex SHA-256 of everything read so far. Call once, after drain().
+     */
+    public String sha256Hex() throws LimitExceededException {
+        checkLimit();
+        return HashUtils.toHex(digest.digest());
+    }
+
+    private void track(int n) throws IOException {
+        count += n;
+        if (count > maxBytes) {
+            exceeded = true;
+            checkLimit();
+        }
+    }
+
+    private void checkLimit() throws LimitExceededException {
+        if (exceeded) throw new LimitExceededException("Upload exceeds limit of " + maxBytes + " bytes");
+    }
+
+    public static class LimitExceededException extends IOException {
+        public LimitExceededException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package info.trizub.clamav.webclient.util;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Depth-first walk in a stable order (entries sorted by name) that can stop at any file and later
+ * resume right after it. The cursor is the stopped-at file relative to the root; resuming only
+ * lists the directories on the cursor's path, it does not re-visit anything before it.
+ *
+ * Called from a ForkJoinPool worker, the listings (readdir + stat, the slow part on network
+ * mounts) of the next few subdirectories are forked as tasks ahead of the walk, so idle workers
+ * steal them while files are visited in order on the calling thread.
+ *
+ * A Filter prunes the walk: rejected entries are dropped before they are stat'ed and rejected
+ * subdirectories are never listed, so excluded subtrees cost no I/O.
+ *
+ * Symlinks are not followed. Unreadable subdirectories are skipped; an unreadable root throws.
+ */
+public final class ResumableTreeWalk {
+
+    /** Subdirectory listings forked ahead of the walk, per directory level. */
+    private static final int PREFETCH = 8;
+
+    private ResumableTreeWalk() {}
+
+    @FunctionalInterface
+    public interface FileVisitor {
+        /** @return true to continue, false to stop after this file */
+        boolean visit(Path file, BasicFileAttributes attrs);
+    }
+
+    public interface Filter {
+        /** Checked by path alone, before the entry is stat'ed; false drops it (file or directory). */
+        boolean accept(Path path);
+
+        /** Checked before a subdirectory is listed; false skips its whole subtree. */
+        boolean enter(Path dir);
+    }
+
+    private static final Filter ALL = new Filter() {
+        @Override
+        public boolean accept(Path path) { return true; }
+
+        @Override
+        public boolean enter(Path dir) { return true; }
+    };
+
+    private record Entry(Path path, BasicFileAttributes attrs) {}
+
+    private static final class Listing extends RecursiveTask<List<Entry>> {
+        private final Path dir;
+        private final Filter filter;
+
+        Listing(Path dir, Filter filter) {
+            this.dir = dir;
+            this.filter = filter;
+        }
+
+        @Override
+        protected List<Entry> compute() {
+            try {
+                return list(dir, filter);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Visit regular files after cursor (null = from the start).
+     *
+     * @return the cursor to resume from, or null if the walk reached the end of the tree
+     */
+    public static String walk(Path root, String cursor, FileVisitor visitor) throws IOException {
+        return walk(root, cursor, ALL, visitor);
+    }
+
+    /**
+     * Visit regular files after cursor (null = from the start) that pass filter.
+     *
+     * @return the cursor to resume from, or null if the walk reached the end of the tree
+     */
+    public static String walk(Path root, String cursor, Filter filter, FileVisitor visitor) throws IOException {
+        List<String> resume = new ArrayList<>();
+        if (cursor != null && !cursor.isBlank()) {
+            for (Path part : Path.of(cursor)) resume.add(part.toString());
+        }
+        Path stop = walkDir(list(root, filter), resume, filter, visitor, ForkJoinTask.inForkJoinPool());
+        return stop == null ? null : root.relativize(stop).toString();
+    }
+
+    private static Path walkDir(List<Entry> children, List<String> resume, Filter filter, FileVisitor visitor, boolean parallel) {
+        // Skip what the cursor says was visited already.
+        int start = 0;
+        List<String> firstResume = List.of();
+        if (!resume.isEmpty()) {
+            String head = resume.get(0);
+            while (start < children.size() && name(children.get(start)).compareTo(head) < 0) start++;
+            if (start < children.size() && name(children.get(start)).equals(head)) {
+                if (resume.size() == 1) start++; // the cursor file itself was visited last time
+                else firstResume = resume.subList(1, resume.size());
+            }
+        }
+
+        Map<Integer, Listing> ahead = new HashMap<>();
+        int nextPrefetch = start;
+        try {
+            for (int i = start; i < children.size(); i++) {
+                Entry e = children.get(i);
+                if (e.attrs().isDirectory()) {
+                    List<Entry> grandChildren;
+                    if (parallel) {
+                        nextPrefetch = prefetch(children, Math.max(nextPrefetch, i), filter, ahead);
+                        Listing task = ahead.remove(i);
+                        grandChildren = task == null ? null : task.join();
+                    } else {
+                        grandChildren = filter.enter(e.path()) ? new Listing(e.path(), filter).compute() : null;
+                    }
+                    if (grandChildren == null) continue;
+                    Path stop = walkDir(grandChildren, i == start ? firstResume : List.of(), filter, visitor, parallel);
+                    if (stop != null) return stop;
+                } else if (e.attrs().isRegularFile()) {
+                    if (!visitor.visit(e.path(), e.attrs())) return e.path();
+                }
+            }
+            return null;
+        } finally {
+            ahead.values().forEach(t -> t.cancel(false));
+        }
+    }
+
+    private static int prefetch(List<Entry> children, int from, Filter filter, Map<Integer, Listing> ahead) {
+        int i = from;
+        while (i < children.size() && ahead.size() < PREFETCH) {
+            Entry e = children.get(i);
+            if (e.attrs().isDirectory() && filter.enter(e.path())) {
+                Listing task = new Listing(e.path(), filter);
+                task.fork();
+                ahead.put(i, task);
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private static String name(Entry e) {
+        return e.path().getFileName().toString();
+    }
+
+    private static List<Entry> list(Path dir, Filter filter) throws IOException {
+        List<Entry> children = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+            for (Path c : ds) {
+                if (!filter.accept(c)) continue;
+                try {
+                    children.add(new Entry(c, Files.readAttributes(c, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS)));
+                } catch (IOException ignored) {
+                    // vanished or unreadable: skip
+                }
+            }
+        }
+        children.sort(Comparator.comparing(ResumableTreeWalk::name));
+        return children;
+    }
+}
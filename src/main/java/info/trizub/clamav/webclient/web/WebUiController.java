@@ -1,6 +1,7 @@
 package info.trizub.clamav.webclient.web;
 
 import info.trizub.clamav.webclient.model.ClamdEndpoint;
+import info.trizub.clamav.webclient.model.JobPriority;
 import info.trizub.clamav.webclient.model.Role;
 import info.trizub.clamav.webclient.model.ScanJob;
 import info.trizub.clamav.webclient.repo.AuditEventRepository;
@@ -15,9 +16,9 @@ import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
-import xyz.capybara.clamav.ClamavClient;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 @Controller
 public class WebUiController {
@@ -67,6 +68,7 @@ public class WebUiController {
     private final AppUserRepository userRepo;
     private final UserService userService;
     private final WatchedDirectoryRepository watchRepo;
+    private final RetentionService retention;
 
     public WebUiController(SettingsService settings,
                            EndpointService endpoints,
@@ -76,7 +78,8 @@ public class WebUiController {
                            AuditEventRepository auditRepo,
                            AppUserRepository userRepo,
                            UserService userService,
-                           WatchedDirectoryRepository watchRepo) {
+                           WatchedDirectoryRepository watchRepo,
+                           RetentionService retention) {
         this.settings = settings;
         this.endpoints = endpoints;
         this.jobs = jobs;
@@ -86,6 +89,7 @@ public class WebUiController {
         this.userRepo = userRepo;
         this.userService = userService;
         this.watchRepo = watchRepo;
+        this.retention = retention;
     }
 
     @GetMapping("/login")
@@ -123,11 +127,10 @@ public class WebUiController {
         }
 
         try {
-            ClamavClient c = clientProvider.clientFor(ep);
-            c.ping();
+            clientProvider.ping(ep);
             model.addAttribute("pingOk", true);
-            model.addAttribute("version", c.version());
-            model.addAttribute("stats", c.stats());
+            model.addAttribute("version", clientProvider.version(ep));
+            model.addAttribute("stats", clientProvider.stats(ep));
         } catch (Exception e) {
             model.addAttribute("pingOk", false);
             model.addAttribute("error", e.getMessage());
@@ -150,13 +153,14 @@ public class WebUiController {
 
     @PostMapping("/scan/upload")
     public String scanUpload(@RequestParam("files") List<MultipartFile> files,
-                             @RequestParam("endpointId") Long endpointId,
+                             @RequestParam(name="endpointId", required = false) Long endpointId,
+                             @RequestParam(name="pool", defaultValue = "false") boolean pool,
                              Authentication auth,
                              HttpServletRequest req,
                              Model model) {
         try {
-            ClamdEndpoint ep = endpoints.get(endpointId);
-            List<ScanJob> created = jobs.createUploadJobs(files, ep, auth.getName());
+            ClamdEndpoint ep = pool ? null : endpoints.get(endpointId);
+            List<ScanJob> created = jobs.createUploadJobs(files, ep, auth.getName(), JobPriority.INTERACTIVE);
             audit.record(auth, req, "SCAN_UPLOAD", "files=" + created.size(), "SUCCESS", created.isEmpty() ? null : created.get(0).getId());
             return "redirect:/jobs";
         } catch (Exception e) {
@@ -168,13 +172,14 @@ public class WebUiController {
 
     @PostMapping("/scan/path")
     public String scanPath(@RequestParam("path") String path,
-                           @RequestParam("endpointId") Long endpointId,
+                           @RequestParam(name="endpointId", required = false) Long endpointId,
+                           @RequestParam(name="pool", defaultValue = "false") boolean pool,
                            Authentication auth,
                            HttpServletRequest req,
                            Model model) {
         try {
-            ClamdEndpoint ep = endpoints.get(endpointId);
-            ScanJob job = jobs.createPathJob(path, ep, auth.getName());
+            ClamdEndpoint ep = pool ? null : endpoints.get(endpointId);
+            ScanJob job = jobs.createPathJob(path, ep, auth.getName(), JobPriority.INTERACTIVE);
             audit.record(auth, req, "SCAN_PATH", "path=" + path, "SUCCESS", job.getId());
             return "redirect:/scan";
         } catch (Exception e) {
@@ -220,14 +225,57 @@ public class WebUiController {
         for (String key : List.of(
                 "app.allowedScanRoots",
                 "app.upload.maxBytes",
+                "app.upload.streaming",
                 "app.concurrentScans",
+                "app.executor.mode",
+                "app.executor.maxInFlight",
+                "app.queue.capacity",
+                "app.queue.retryAfterSeconds",
+                "app.jobs.completionBatchMs",
+                "app.pathScan.mode",
+                "app.pathScan.parallelism",
+                "app.routing.strategy",
+                "app.routing.cooldownSeconds",
                 "app.storage.uploadDir",
                 "app.storage.quarantineDir",
                 "app.quarantine.enabled",
                 "app.webhook.enabled",
                 "app.webhook.url",
                 "app.watch.enabled",
-                "app.watch.pollSeconds"
+                "app.watch.pollSeconds",
+                "app.watch.mode",
+                "app.watch.reconcileMinutes",
+                "app.watch.sweepMaxFiles",
+                "app.watch.sweepMaxSeconds",
+                "app.watch.crawlParallelism",
+                "app.watch.quietSeconds",
+                "app.watch.stableMarkerSuffix",
+                "app.watch.moveDetection",
+                "app.watch.batch.enabled",
+                "app.watch.batch.windowSeconds",
+                "app.watch.batch.maxFiles",
+                "app.clamd.pool.enabled",
+                "app.clamd.pool.maxPerEndpoint",
+                "app.clamd.pool.idleSeconds",
+                "app.clamd.pool.acquireTimeoutMs",
+                "app.clamd.pool.readTimeoutMs",
+                "app.cache.enabled",
+                "app.cache.maxEntries",
+                "app.cache.ttlDays",
+                "app.cache.versionTtlSeconds",
+                "app.rescan.enabled",
+                "app.rescan.filesPerMinute",
+                "app.rescan.batchSize",
+                "app.recovery.jobsPerSecond",
+                "app.audit.flushMs",
+                "app.audit.batchSize",
+                "app.audit.queueCapacity",
+                "app.audit.spillFile",
+                "app.retention.enabled",
+                "app.retention.jobsDays",
+                "app.retention.auditDays",
+                "app.retention.batchSize",
+                "app.retention.archiveDir"
         )) {
             if (params.containsKey(key)) allowed.put(key, params.get(key));
         }
@@ -236,6 +284,14 @@ public class WebUiController {
         return "redirect:/admin/settings";
     }
 
+    @PostMapping("/admin/retention/run")
+    public String adminRetentionRun(Authentication auth, HttpServletRequest req) {
+        // Runs in the background; a run can take up to 15 minutes on a large backlog.
+        CompletableFuture.runAsync(retention::archiveDue);
+        audit.record(auth, req, "RETENTION_RUN", null, "SUCCESS", null);
+        return "redirect:/admin/settings";
+    }
+
     @GetMapping("/admin/endpoints")
     public String adminEndpoints(Model model) {
         model.addAttribute("endpoints", endpoints.all());
@@ -248,9 +304,10 @@ public class WebUiController {
                                        @RequestParam int port,
                                        @RequestParam String platform,
                                        @RequestParam(defaultValue = "true") boolean enabled,
+                                       @RequestParam(required = false) Integer maxConcurrency,
                                        Authentication auth,
                                        HttpServletRequest req) {
-        endpoints.create(name, host, port, xyz.capybara.clamav.Platform.valueOf(platform), enabled);
+        endpoints.create(name, host, port, xyz.capybara.clamav.Platform.valueOf(platform), enabled, maxConcurrency);
         audit.record(auth, req, "ENDPOINT_CREATE", name + "@" + host + ":" + port, "SUCCESS", null);
         return "redirect:/admin/endpoints";
     }
@@ -262,9 +319,10 @@ public class WebUiController {
                                        @RequestParam int port,
                                        @RequestParam String platform,
                                        @RequestParam(defaultValue = "true") boolean enabled,
+                                       @RequestParam(required = false) Integer maxConcurrency,
                                        Authentication auth,
                                        HttpServletRequest req) {
-        endpoints.update(id, name, host, port, xyz.capybara.clamav.Platform.valueOf(platform), enabled);
+        endpoints.update(id, name, host, port, xyz.capybara.clamav.Platform.valueOf(platform), enabled, maxConcurrency);
         audit.record(auth, req, "ENDPOINT_UPDATE", "id=" + id, "SUCCESS", null);
         return "redirect:/admin/endpoints";
     }
@@ -358,6 +416,26 @@ public class WebUiController {
         return "redirect:/admin/watch";
     }
 
+    @PostMapping("/admin/watch/{id}/rules")
+    public String adminWatchRules(@PathVariable Long id,
+                                  @RequestParam(required = false) String includeGlobs,
+                                  @RequestParam(required = false) String excludeGlobs,
+                                  @RequestParam(required = false) Long maxFileSizeBytes,
+                                  @RequestParam(required = false) Integer maxDepth,
+                                  @RequestParam(required = false) Integer pollSeconds,
+                                  Authentication auth,
+                                  HttpServletRequest req) {
+        var wd = watchRepo.findById(id).orElseThrow();
+        wd.setIncludeGlobs(includeGlobs == null || includeGlobs.isBlank() ? null : includeGlobs.trim());
+        wd.setExcludeGlobs(excludeGlobs == null || excludeGlobs.isBlank() ? null : excludeGlobs.trim());
+        wd.setMaxFileSizeBytes(maxFileSizeBytes == null || maxFileSizeBytes <= 0 ? null : maxFileSizeBytes);
+        wd.setMaxDepth(maxDepth == null || maxDepth < 0 ? null : maxDepth);
+        wd.setPollSeconds(pollSeconds == null || pollSeconds <= 0 ? null : pollSeconds);
+        watchRepo.save(wd);
+        audit.record(auth, req, "WATCH_RULES", "id=" + id, "SUCCESS", null);
+        return "redirect:/admin/watch";
+    }
+
     @PostMapping("/admin/watch/{id}/delete")
     public String adminWatchDelete(@PathVariable Long id,
                                    Authentication auth,
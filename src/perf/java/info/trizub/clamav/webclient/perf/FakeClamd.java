@@ -0,0 +1,394 @@
+package info.trizub.clamav.webclient.perf;
+
+import info.trizub.clamav.webclient.util.HashUtils;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Stand-in for clamd on a local TCP port, for load and integration runs without a signature database.
+ *
+ * Speaks the commands the app and clamav-client use: PING, VERSION, VERSIONCOMMANDS, STATS,
+ * INSTREAM, SCAN, CONTSCAN, MULTISCAN, ALLMATCHSCAN, IDSESSION/END, in the z (NUL) and
+ * n (newline) forms. Content is flagged when it contains the EICAR test string or when its
+ * SHA-256 was registered with addHash().
+ *
+ * Faults can be switched on at any time: fixed latency plus jitter per scan, a share of scans
+ * answered with ERROR, and a share of scans where the connection is dropped without a reply.
+ *
+ * Standalone: java ... FakeClamd --port=3310 --latency-ms=20 --error-rate=0.01 --hash=SHA256:Name
+ *             --signature-version=27001
+ */
+public class FakeClamd implements Closeable {
+
+    public static final String EICAR = "X5O!P%@AP[4\\PZX54(P^)7CC)7}$EICAR-STANDARD-ANTIVIRUS-TEST-FILE!$H+H*";
+    private static final byte[] EICAR_MARKER = "EICAR-STANDARD-ANTIVIRUS-TEST-FILE".getBytes(StandardCharsets.US_ASCII);
+    private static final String EICAR_NAME = "Win.Test.EICAR_HDB-1";
+    private static final String COMMANDS = "SCAN QUIT RELOAD PING CONTSCAN VERSIONCOMMANDS VERSION END SHUTDOWN "
+            + "MULTISCAN FILDES STATS IDSESSION INSTREAM DETSTATSCLEAR DETSTATS ALLMATCHSCAN";
+
+    private final Map<String, String> badHashes = new ConcurrentHashMap<>();
+
+    private volatile long latencyMs;
+    private volatile long jitterMs;
+    private volatile double errorRate;
+    private volatile double dropRate;
+    private volatile long maxStreamBytes = 100L * 1024 * 1024;
+    private volatile String signatureVersion = "27000";
+
+    private final AtomicLong connections = new AtomicLong();
+    private final AtomicLong scans = new AtomicLong();
+    private final AtomicLong found = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong drops = new AtomicLong();
+
+    private ServerSocket server;
+    private Thread acceptor;
+
+    private record Request(String command, char terminator) {}
+
+    public FakeClamd start(int port) throws IOException {
+        server = new ServerSocket(port, 200, InetAddress.getLoopbackAddress());
+        acceptor = new Thread(this::acceptLoop, "fake-clamd-" + server.getLocalPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return this;
+    }
+
+    public int port() {
+        return server.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (server != null) server.close();
+    }
+
+    public FakeClamd latency(long latencyMs, long jitterMs) {
+        this.latencyMs = latencyMs;
+        this.jitterMs = jitterMs;
+        return this;
+    }
+
+    public FakeClamd errorRate(double errorRate) {
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    public FakeClamd dropRate(double dropRate) {
+        this.dropRate = dropRate;
+        return this;
+    }
+
+    public FakeClamd maxStreamBytes(long maxStreamBytes) {
+        this.maxStreamBytes = maxStreamBytes;
+        return this;
+    }
+
+    /**
+     * Simulate a signature update: changes the daily version in VERSION replies.
+     */
+    public FakeClamd signatureVersion(String version) {
+        this.signatureVersion = version;
+        return this;
+    }
+
+    public FakeClamd addHash(String sha256Hex, String signatureName) {
+        badHashes.put(sha256Hex.toLowerCase(Locale.ROOT), signatureName);
+        return this;
+    }
+
+    public Map<String, Long> stats() {
+        Map<String, Long> m = new LinkedHashMap<>();
+        m.put("connections", connections.get());
+        m.put("scans", scans.get());
+        m.put("found", found.get());
+        m.put("errors", errors.get());
+        m.put("drops", drops.get());
+        return m;
+    }
+
+    private void acceptLoop() {
+        while (!server.isClosed()) {
+            try {
+                Socket s = server.accept();
+                connections.incrementAndGet();
+                Thread.ofVirtual().name("fake-clamd-conn").start(() -> serve(s));
+            } catch (IOException e) {
+                if (!server.isClosed()) System.err.println("fake clamd: accept failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            boolean session = false;
+            int requestId = 0;
+            Request req;
+            while ((req = readRequest(in)) != null) {
+                String cmd = req.command();
+                if (cmd.equals("IDSESSION")) {
+                    session = true;
+                    continue;
+                }
+                if (cmd.equals("END") || cmd.equals("QUIT")) return;
+                requestId++;
+
+                String reply = handle(cmd, in);
+                if (reply == null) return; // injected connection drop
+                String prefix = session ? requestId + ": " : "";
+                out.write((prefix + reply + req.terminator()).getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                if (!session) return;
+            }
+        } catch (SocketException | EOFException ignored) {
+            // client went away
+        } catch (IOException e) {
+            System.err.println("fake clamd: " + e.getMessage());
+        }
+    }
+
+    private static Request readRequest(DataInputStream in) throws IOException {
+        int first = in.read();
+        if (first < 0) return null;
+        char terminator = first == 'z' ? '\0' : '\n';
+        ByteArrayOutputStream cmd = new ByteArrayOutputStream();
+        if (first != 'z' && first != 'n') cmd.write(first);
+        int c;
+        while ((c = in.read()) >= 0 && c != terminator) cmd.write(c);
+        if (c < 0) return null;
+        return new Request(cmd.toString(StandardCharsets.UTF_8), terminator);
+    }
+
+    private String handle(String cmd, DataInputStream in) throws IOException {
+        String name = cmd.contains(" ") ? cmd.substring(0, cmd.indexOf(' ')) : cmd;
+        switch (name) {
+            case "PING":
+                return "PONG";
+            case "VERSION":
+                return version();
+            case "VERSIONCOMMANDS":
+                return version() + "| COMMANDS: " + COMMANDS;
+            case "RELOAD":
+                return "RELOADING";
+            case "STATS":
+                return "POOLS: 1\n\nSTATE: VALID PRIMARY\nTHREADS: live 1  idle 0 max 12 idle-timeout 30\n"
+                        + "QUEUE: 0 items\nMEMSTATS: heap N/A mmap N/A used N/A free N/A releasable N/A pools 1 pools_used N/A pools_total N/A\nEND";
+            case "INSTREAM": {
+                Verdict v = readStream(in);
+                return scanReply("stream", v);
+            }
+            case "SCAN":
+            case "CONTSCAN":
+            case "MULTISCAN":
+            case "ALLMATCHSCAN":
+                return scanPath(cmd.substring(name.length()).trim());
+            default:
+                return "UNKNOWN COMMAND";
+        }
+    }
+
+    private String version() {
+        return "ClamAV 1.4.1/" + signatureVersion + "/Thu Oct 16 08:00:00 2026";
+    }
+
+    private sealed interface Verdict permits Clean, Infected, Failed {}
+    private record Clean() implements Verdict {}
+    private record Infected(String signature) implements Verdict {}
+    private record Failed(String message) implements Verdict {}
+
+    /**
+     * Reply for one scanned object, or null when the connection should be dropped.
+     */
+    private String scanReply(String name, Verdict v) {
+        scans.incrementAndGet();
+        injectLatency();
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        if (dropRate > 0 && rnd.nextDouble() < dropRate) {
+            drops.incrementAndGet();
+            return null;
+        }
+        if (errorRate > 0 && rnd.nextDouble() < errorRate) {
+            errors.incrementAndGet();
+            return name + ": Injected failure ERROR";
+        }
+        if (v instanceof Infected i) {
+            found.incrementAndGet();
+            return name + ": " + i.signature() + " FOUND";
+        }
+        if (v instanceof Failed f) {
+            errors.incrementAndGet();
+            return name + ": " + f.message() + " ERROR";
+        }
+        return name + ": OK";
+    }
+
+    private String scanPath(String pathArg) throws IOException {
+        Path path = Paths.get(pathArg);
+        if (!Files.exists(path)) {
+            return scanReply(pathArg, new Failed("lstat() failed: No such file or directory."));
+        }
+        if (Files.isRegularFile(path)) {
+            return scanReply(pathArg, scanFile(path));
+        }
+        List<String> lines = new ArrayList<>();
+        try (Stream<Path> files = Files.walk(path)) {
+            for (Path f : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                Verdict v = scanFile(f);
+                if (v instanceof Clean) continue;
+                String line = scanReply(f.toString(), v);
+                if (line == null) return null;
+                lines.add(line);
+            }
+        }
+        if (lines.isEmpty()) {
+            return scanReply(pathArg, new Clean());
+        }
+        return String.join("\n", lines);
+    }
+
+    private Verdict scanFile(Path file) {
+        try (InputStream in = Files.newInputStream(file)) {
+            return inspect(in, Long.MAX_VALUE);
+        } catch (IOException e) {
+            return new Failed("Access denied.");
+        }
+    }
+
+    /**
+     * INSTREAM chunks: 4-byte big-endian length, data, ..., zero-length chunk.
+     */
+    private Verdict readStream(DataInputStream in) throws IOException {
+        ChunkStream chunks = new ChunkStream(in);
+        Verdict v = inspect(chunks, maxStreamBytes);
+        chunks.skipToEnd();
+        return v;
+    }
+
+    private Verdict inspect(InputStream in, long limit) throws IOException {
+        MessageDigest sha = HashUtils.newSha256();
+        byte[] buf = new byte[64 * 1024];
+        byte[] tail = new byte[0];
+        boolean eicar = false;
+        long total = 0;
+        int r;
+        while ((r = in.read(buf)) > 0) {
+            total += r;
+            if (total > limit) {
+                return new Failed("INSTREAM size limit exceeded.");
+            }
+            sha.update(buf, 0, r);
+            if (!eicar) {
+                byte[] window = new byte[tail.length + r];
+                System.arraycopy(tail, 0, window, 0, tail.length);
+                System.arraycopy(buf, 0, window, tail.length, r);
+                eicar = indexOf(window, EICAR_MARKER) >= 0;
+                int keep = Math.min(window.length, EICAR_MARKER.length - 1);
+                tail = Arrays.copyOfRange(window, window.length - keep, window.length);
+            }
+        }
+        if (eicar) return new Infected(EICAR_NAME);
+        String byHash = badHashes.get(HashUtils.toHex(sha.digest()));
+        return byHash != null ? new Infected(byHash) : new Clean();
+    }
+
+    private static int indexOf(byte[] data, byte[] needle) {
+        outer:
+        for (int i = 0; i <= data.length - needle.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (data[i + j] != needle[j]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private void injectLatency() {
+        long ms = latencyMs + (jitterMs > 0 ? ThreadLocalRandom.current().nextLong(jitterMs + 1) : 0);
+        if (ms <= 0) return;
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Presents the INSTREAM chunk sequence as one InputStream.
+     */
+    private static final class ChunkStream extends InputStream {
+        private final DataInputStream in;
+        private int remaining;
+        private boolean done;
+
+        ChunkStream(DataInputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (done) return -1;
+            if (remaining == 0) {
+                remaining = in.readInt();
+                if (remaining <= 0) {
+                    done = true;
+                    return -1;
+                }
+            }
+            int r = in.read(b, off, Math.min(len, remaining));
+            if (r < 0) throw new EOFException("INSTREAM ended without a zero-length chunk");
+            remaining -= r;
+            return r;
+        }
+
+        void skipToEnd() throws IOException {
+            byte[] buf = new byte[64 * 1024];
+            while (read(buf, 0, buf.length) >= 0) {
+                // discard the rest after an early verdict (size limit)
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = new HashMap<>();
+        List<String> hashes = new ArrayList<>();
+        for (String a : args) {
+            String[] kv = a.replaceFirst("^--", "").split("=", 2);
+            if (kv[0].equals("hash")) hashes.add(kv.length > 1 ? kv[1] : "");
+            else opts.put(kv[0], kv.length > 1 ? kv[1] : "true");
+        }
+        FakeClamd clamd = new FakeClamd()
+                .latency(Long.parseLong(opts.getOrDefault("latency-ms", "0")), Long.parseLong(opts.getOrDefault("jitter-ms", "0")))
+                .errorRate(Double.parseDouble(opts.getOrDefault("error-rate", "0")))
+                .dropRate(Double.parseDouble(opts.getOrDefault("drop-rate", "0")))
+                .signatureVersion(opts.getOrDefault("signature-version", "27000"));
+        for (String h : hashes) {
+            String[] parts = h.split(":", 2);
+            clamd.addHash(parts[0], parts.length > 1 ? parts[1] : "Fake.Hash.Match");
+        }
+        clamd.start(Integer.parseInt(opts.getOrDefault("port", "3310")));
+        System.out.println("fake clamd listening on 127.0.0.1:" + clamd.port());
+        Thread.currentThread().join();
+    }
+}
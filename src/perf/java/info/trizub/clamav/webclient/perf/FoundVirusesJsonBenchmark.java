@@ -0,0 +1,43 @@
+package info.trizub.clamav.webclient.perf;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson serialization of the foundViruses map, as done when a job finishes VIRUS_FOUND.
+ * Large maps come from directory scans with many infected files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FoundVirusesJsonBenchmark {
+
+    @Param({"1", "100", "10000", "100000"})
+    public int entries;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private Map<String, Collection<String>> found;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        found = new LinkedHashMap<>();
+        for (int i = 0; i < entries; i++) {
+            found.put("/scandir/share/dir-" + (i / 100) + "/file-" + i + ".bin",
+                    i % 10 == 0 ? List.of("Win.Test.EICAR_HDB-1", "Heuristics.Encrypted.Zip") : List.of("Win.Test.EICAR_HDB-1"));
+        }
+    }
+
+    @Benchmark
+    public String writeValueAsString() throws Exception {
+        return mapper.writeValueAsString(found);
+    }
+}
@@ -0,0 +1,48 @@
+package info.trizub.clamav.webclient.perf;
+
+import info.trizub.clamav.webclient.util.HashUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HashUtils.sha256 over a file on disk (page cache warm after warmup), by file size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HashUtilsBenchmark {
+
+    @Param({"4096", "1048576", "67108864"})
+    public int sizeBytes;
+
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        byte[] data = new byte[sizeBytes];
+        new Random(42).nextBytes(data);
+        file = Files.createTempFile("jmh-sha256-", ".bin");
+        Files.write(file, data);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public String sha256() throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return HashUtils.sha256(in);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package info.trizub.clamav.webclient.perf;
+
+import info.trizub.clamav.webclient.util.PathPolicy;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PathPolicy.isUnderAllowedRoots as the number of allowed roots grows. "last" matches the last
+ * root, "none" matches no root; both walk the whole list.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathPolicyBenchmark {
+
+    @Param({"1", "10", "100", "1000"})
+    public int roots;
+
+    private List<Path> allowedRoots;
+    private Path underLastRoot;
+    private Path outsideRoots;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        allowedRoots = new ArrayList<>(roots);
+        for (int i = 0; i < roots; i++) {
+            allowedRoots.add(PathPolicy.normalize("/srv/share-" + i + "/incoming"));
+        }
+        underLastRoot = PathPolicy.normalize("/srv/share-" + (roots - 1) + "/incoming/2026/10/report.pdf");
+        outsideRoots = PathPolicy.normalize("/home/user/Downloads/report.pdf");
+    }
+
+    @Benchmark
+    public boolean last() {
+        return PathPolicy.isUnderAllowedRoots(underLastRoot, allowedRoots);
+    }
+
+    @Benchmark
+    public boolean none() {
+        return PathPolicy.isUnderAllowedRoots(outsideRoots, allowedRoots);
+    }
+}
@@ -0,0 +1,171 @@
+package info.trizub.clamav.webclient.perf;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import info.trizub.clamav.webclient.ClamAVWebClientApplication;
+import info.trizub.clamav.webclient.model.ClamdEndpoint;
+import info.trizub.clamav.webclient.model.JobPriority;
+import info.trizub.clamav.webclient.model.ScanJob;
+import info.trizub.clamav.webclient.model.ScanJobStatus;
+import info.trizub.clamav.webclient.repo.ScanJobRepository;
+import info.trizub.clamav.webclient.service.EndpointService;
+import info.trizub.clamav.webclient.service.ScanJobService;
+import info.trizub.clamav.webclient.service.SettingsService;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Drives the real scan pipeline (ScanJobService -> queue -> ScanExecutionService -> clamd pool)
+ * against FakeClamd and reports jobs/sec and latency percentiles.
+ *
+ * Jobs are submitted as stream uploads with app.upload.streaming=false, so every job goes through
+ * the queue and an executor worker. The app runs in-process on an in-memory H2 database and a
+ * random HTTP port. It writes conf/ and data/ relative to the working directory, so run it from a
+ * scratch directory (the perf profile uses target/load):
+ *
+ *   mvn -Pperf test-compile exec:exec@load-test -Dload.jobs=5000 -Dload.latencyMs=10 -Dload.executor=virtual
+ *
+ * Options (--key=value): jobs, sizeBytes, infectedEvery, latencyMs, jitterMs, errorRate, dropRate,
+ * executor (platform|virtual), concurrency, pool (true|false), timeoutSeconds.
+ * The summary is printed and written to load-result.json.
+ */
+public class ScanLoadHarness {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = new HashMap<>();
+        for (String a : args) {
+            String[] kv = a.replaceFirst("^--", "").split("=", 2);
+            opts.put(kv[0], kv.length > 1 ? kv[1] : "true");
+        }
+        int jobs = Integer.parseInt(opts.getOrDefault("jobs", "2000"));
+        int sizeBytes = Integer.parseInt(opts.getOrDefault("sizeBytes", "65536"));
+        int infectedEvery = Integer.parseInt(opts.getOrDefault("infectedEvery", "100"));
+        long timeoutSeconds = Long.parseLong(opts.getOrDefault("timeoutSeconds", "600"));
+
+        if (Files.exists(Paths.get("pom.xml"))) {
+            System.err.println("Refusing to run in a project directory (it would overwrite conf/); use a scratch directory.");
+            System.exit(2);
+        }
+
+        try (FakeClamd clamd = new FakeClamd()
+                .latency(Long.parseLong(opts.getOrDefault("latencyMs", "5")), Long.parseLong(opts.getOrDefault("jitterMs", "0")))
+                .errorRate(Double.parseDouble(opts.getOrDefault("errorRate", "0")))
+                .dropRate(Double.parseDouble(opts.getOrDefault("dropRate", "0")))
+                .start(0)) {
+
+            writeSettings(clamd.port(), jobs, opts);
+            // devtools is on the test classpath; its restarter would relaunch the app in a new classloader.
+            System.setProperty("spring.devtools.restart.enabled", "false");
+            // Passed as arguments: builder defaults would lose to application.properties.
+            ConfigurableApplicationContext ctx = new SpringApplicationBuilder(ClamAVWebClientApplication.class).run(
+                    "--server.port=0",
+                    "--spring.datasource.url=jdbc:h2:mem:load;MODE=PostgreSQL;DB_CLOSE_DELAY=-1",
+                    "--spring.h2.console.enabled=false",
+                    "--logging.level.root=WARN",
+                    "--logging.level.info.trizub=WARN");
+            try {
+                Map<String, Object> result = run(ctx, clamd, jobs, sizeBytes, infectedEvery, timeoutSeconds, opts);
+                String json = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValueAsString(result);
+                Files.writeString(Paths.get("load-result.json"), json);
+                System.out.println(json);
+            } finally {
+                ctx.close();
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void writeSettings(int clamdPort, int jobs, Map<String, String> opts) throws Exception {
+        Path conf = Paths.get(SettingsService.SETTINGS_FILE);
+        Files.createDirectories(conf.getParent());
+        Files.deleteIfExists(conf);
+        Files.writeString(conf, String.join("\n",
+                "clamav.service.host=127.0.0.1",
+                "clamav.service.port=" + clamdPort,
+                "app.upload.streaming=false",
+                "app.upload.maxBytes=" + Long.MAX_VALUE,
+                "app.cache.enabled=false",
+                "app.queue.capacity=" + jobs,
+                "app.executor.mode=" + opts.getOrDefault("executor", "platform"),
+                "app.concurrentScans=" + opts.getOrDefault("concurrency", "4"),
+                "app.clamd.pool.enabled=" + opts.getOrDefault("pool", "true"),
+                "app.storage.uploadDir=./data/uploads",
+                ""));
+    }
+
+    private static Map<String, Object> run(ConfigurableApplicationContext ctx, FakeClamd clamd, int jobs, int sizeBytes,
+                                           int infectedEvery, long timeoutSeconds, Map<String, String> opts) throws Exception {
+        ScanJobService jobService = ctx.getBean(ScanJobService.class);
+        ScanJobRepository repo = ctx.getBean(ScanJobRepository.class);
+        ClamdEndpoint ep = ctx.getBean(EndpointService.class).defaultEndpointOrEnsure();
+
+        Random rnd = new Random(42);
+        byte[] eicar = FakeClamd.EICAR.getBytes(StandardCharsets.US_ASCII);
+        List<String> ids = new ArrayList<>(jobs);
+
+        long t0 = System.nanoTime();
+        for (int i = 0; i < jobs; i++) {
+            byte[] payload = new byte[sizeBytes];
+            rnd.nextBytes(payload);
+            if (infectedEvery > 0 && i % infectedEvery == 0) {
+                System.arraycopy(eicar, 0, payload, 0, Math.min(eicar.length, payload.length));
+            }
+            ScanJob job = jobService.createStreamJob(new ByteArrayInputStream(payload), "load-" + i + ".bin", ep, "load", JobPriority.API);
+            ids.add(job.getId());
+        }
+        long submitMs = (System.nanoTime() - t0) / 1_000_000;
+
+        long deadline = System.currentTimeMillis() + timeoutSeconds * 1000;
+        List<ScanJob> done;
+        while (true) {
+            done = repo.findAllById(ids);
+            long finished = done.stream().filter(j -> j.getStatus() == ScanJobStatus.FINISHED).count();
+            if (finished == jobs) break;
+            if (System.currentTimeMillis() > deadline) {
+                System.err.println("Timed out with " + finished + "/" + jobs + " jobs finished");
+                break;
+            }
+            Thread.sleep(100);
+        }
+        long wallMs = (System.nanoTime() - t0) / 1_000_000;
+
+        List<ScanJob> finished = done.stream().filter(j -> j.getFinishedAt() != null).toList();
+        long[] endToEnd = finished.stream()
+                .mapToLong(j -> j.getFinishedAt().toEpochMilli() - j.getSubmittedAt().toEpochMilli()).sorted().toArray();
+        long[] scan = finished.stream().filter(j -> j.getStartedAt() != null)
+                .mapToLong(j -> j.getFinishedAt().toEpochMilli() - j.getStartedAt().toEpochMilli()).sorted().toArray();
+
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("options", new TreeMap<>(opts));
+        out.put("jobs", jobs);
+        out.put("finished", finished.size());
+        out.put("verdicts", finished.stream().collect(Collectors.groupingBy(j -> String.valueOf(j.getVerdict()), TreeMap::new, Collectors.counting())));
+        out.put("errorSamples", finished.stream().map(ScanJob::getErrorMessage).filter(Objects::nonNull).distinct().limit(5).toList());
+        out.put("submitMs", submitMs);
+        out.put("wallMs", wallMs);
+        out.put("jobsPerSecond", Math.round(finished.size() * 10000d / Math.max(1, wallMs)) / 10d);
+        out.put("endToEndMs", percentiles(endToEnd));
+        out.put("scanMs", percentiles(scan));
+        out.put("clamd", clamd.stats());
+        return out;
+    }
+
+    private static Map<String, Long> percentiles(long[] sorted) {
+        Map<String, Long> m = new LinkedHashMap<>();
+        if (sorted.length == 0) return m;
+        for (double p : new double[]{50, 90, 99, 99.9}) {
+            int idx = (int) Math.min(sorted.length - 1, Math.ceil(p / 100 * sorted.length) - 1);
+            m.put("p" + (p == Math.floor(p) ? String.valueOf((long) p) : String.valueOf(p)), sorted[Math.max(0, idx)]);
+        }
+        m.put("max", sorted[sorted.length - 1]);
+        return m;
+    }
+}
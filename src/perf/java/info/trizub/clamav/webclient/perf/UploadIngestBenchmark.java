@@ -0,0 +1,88 @@
+package info.trizub.clamav.webclient.perf;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import info.trizub.clamav.webclient.model.JobPriority;
+import info.trizub.clamav.webclient.model.ScanJob;
+import info.trizub.clamav.webclient.repo.ScanJobFileRepository;
+import info.trizub.clamav.webclient.repo.ScanJobRepository;
+import info.trizub.clamav.webclient.service.*;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * ScanJobService.createUploadJobs with streaming off: one pass over the upload that hashes it
+ * and stores it under the upload dir. The DB and the executor are mocks, so this measures the
+ * store+hash path only.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UploadIngestBenchmark {
+
+    @Param({"65536", "1048576", "16777216"})
+    public int sizeBytes;
+
+    private Path uploadDir;
+    private ScanJobService jobs;
+    private List<MultipartFile> files;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        uploadDir = Files.createTempDirectory("jmh-uploads-");
+
+        SettingsService settings = mock(SettingsService.class);
+        when(settings.uploadDir()).thenReturn(uploadDir);
+        when(settings.uploadMaxBytes()).thenReturn(Long.MAX_VALUE);
+        when(settings.uploadStreaming()).thenReturn(false);
+
+        jobs = new ScanJobService(
+                mock(ScanJobRepository.class),
+                settings,
+                new ObjectMapper(),
+                mock(ScanExecutionService.class),
+                mock(VerdictCacheService.class),
+                mock(PathFanoutScanner.class),
+                mock(ScanJobFileRepository.class),
+                mock(PlatformTransactionManager.class));
+
+        byte[] data = new byte[sizeBytes];
+        new Random(42).nextBytes(data);
+        files = List.of(new MockMultipartFile("files", "sample.bin", "application/octet-stream", data));
+    }
+
+    @TearDown(Level.Invocation)
+    public void clearUploads() throws IOException {
+        try (Stream<Path> stored = Files.list(uploadDir)) {
+            for (Path p : stored.toList()) Files.deleteIfExists(p);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> all = Files.walk(uploadDir)) {
+            for (Path p : all.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(p);
+        }
+    }
+
+    @Benchmark
+    public List<ScanJob> createUploadJobs() {
+        return jobs.createUploadJobs(files, null, "jmh", JobPriority.API);
+    }
+}